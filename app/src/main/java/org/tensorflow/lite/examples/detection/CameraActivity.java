@@ -64,8 +64,10 @@ import java.util.ArrayList;
 import java.util.Objects;
 
 // TensorFlow ve uygulama özel kütüphaneler
+import org.tensorflow.lite.examples.detection.env.FrameQualityGate;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 
 public abstract class CameraActivity extends AppCompatActivity
         implements OnImageAvailableListener,
@@ -77,6 +79,12 @@ public abstract class CameraActivity extends AppCompatActivity
     private static final int PERMISSIONS_REQUEST = 1;
     private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
 
+    // Kare kalite kapısı: bulanık veya kötü pozlanmış kareler algılamaya gönderilmez
+    private static final boolean USE_FRAME_QUALITY_GATE = true;
+    private static final float MIN_RELATIVE_SHARPNESS = 0.5f; // Son karelerin ortalama netliğine göre en düşük netlik
+    private static final float MAX_CLIPPED_FRACTION = 0.6f; // Siyah veya beyaza kırpılmış en büyük alan oranı
+    private static final int MAX_REJECTED_IN_ROW = 10; // Bu kadar ret sonrası kare kalitesine bakılmadan kabul edilir
+
     // Diğer değişkenlerin tanımlanması
     private static final String ASSET_PATH = "";
     protected int previewWidth = 0;
@@ -87,6 +95,11 @@ public abstract class CameraActivity extends AppCompatActivity
     private boolean isProcessingFrame = false;
     private final byte[][] yuvBytes = new byte[3][];
     private int[] rgbBytes = null;
+    private final YuvFrame yuvFrame = new YuvFrame();
+    private final FrameQualityGate frameQualityGate = USE_FRAME_QUALITY_GATE
+            ? new FrameQualityGate(MIN_RELATIVE_SHARPNESS, MAX_CLIPPED_FRACTION, MAX_REJECTED_IN_ROW)
+            : null;
+    private boolean frameQualityAcceptable = true;
     private int yRowStride;
     protected int defaultModelIndex = 0;
     protected int defaultDeviceIndex = 0;
@@ -155,6 +168,31 @@ public abstract class CameraActivity extends AppCompatActivity
         return rgbBytes;
     }
 
+    // getYuvFrame metodu, mevcut çerçevenin YUV düzlemlerini RGB'ye dönüştürmeden döndürür
+    protected YuvFrame getYuvFrame() {
+        return yuvFrame;
+    }
+
+    // isFrameQualityAcceptable metodu, mevcut kare algılama ve metin tanıma için yeterince net ve
+    // iyi pozlanmışsa true döndürür; takip yine de her karede yapılabilir
+    protected boolean isFrameQualityAcceptable() {
+        return frameQualityAcceptable;
+    }
+
+    // checkFrameQuality metodu, Y düzleminde mevcut karenin netliğini ve pozlamasını ölçer
+    private void checkFrameQuality() {
+        if (frameQualityGate == null) {
+            return;
+        }
+        frameQualityAcceptable = frameQualityGate.accept(yuvFrame);
+        if (!frameQualityAcceptable) {
+            LOGGER.v("Low quality frame: sharpness %.1f (mean %.1f), %.0f%% clipped, check took %.3f ms",
+                    frameQualityGate.getSharpness(), frameQualityGate.getMeanSharpness(),
+                    100 * frameQualityGate.getClippedFraction(),
+                    frameQualityGate.getLastCheckNanos() / 1e6);
+        }
+    }
+
     // getModelStrings metodu, AssetManager ve path kullanarak model listesini döndürür
     protected ArrayList<String> getModelStrings(AssetManager mgr, String path) {
         ArrayList<String> res = new ArrayList<String>();
@@ -199,6 +237,8 @@ public abstract class CameraActivity extends AppCompatActivity
         isProcessingFrame = true;
         yuvBytes[0] = bytes;
         yRowStride = previewWidth;
+        yuvFrame.setNv21(bytes, previewWidth, previewHeight);
+        checkFrameQuality();
 
         // Görüntüyü dönüştürmek için imageConverter'ı çalıştır
         imageConverter =
@@ -242,6 +282,16 @@ public abstract class CameraActivity extends AppCompatActivity
             yRowStride = planes[0].getRowStride();
             final int uvRowStride = planes[1].getRowStride();
             final int uvPixelStride = planes[1].getPixelStride();
+            yuvFrame.setPlanar(
+                    yuvBytes[0],
+                    yuvBytes[1],
+                    yuvBytes[2],
+                    previewWidth,
+                    previewHeight,
+                    yRowStride,
+                    uvRowStride,
+                    uvPixelStride);
+            checkFrameQuality();
 
             // Görüntüyü dönüştürmek için imageConverter'ı çalıştır
             imageConverter =
@@ -296,6 +346,11 @@ public abstract class CameraActivity extends AppCompatActivity
     @Override
     public synchronized void onPause() {
         LOGGER.d("onPause " + this);
+        if (frameQualityGate != null) {
+            LOGGER.i("Frame quality gate: %d of %d frames blurred, %d badly exposed, %.3f ms per check",
+                    frameQualityGate.getBlurredFrames(), frameQualityGate.getCheckedFrames(),
+                    frameQualityGate.getBadlyExposedFrames(), frameQualityGate.getMeanCheckNanos() / 1e6);
+        }
 
         // Thread'i sonlandır
         handlerThread.quitSafely();
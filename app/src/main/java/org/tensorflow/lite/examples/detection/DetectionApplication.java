@@ -0,0 +1,16 @@
+package org.tensorflow.lite.examples.detection;
+
+import android.app.Application;
+
+/**
+ * Süreç başlarken model, konuşma motoru ve metin tanıma hazırlıklarını başlatır; açılış ekranı
+ * bu sırada gösterilir.
+ */
+public class DetectionApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StartupWarmUp.get(this);
+    }
+}
@@ -26,6 +26,7 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -33,21 +34,23 @@ import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
-import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.DetectionPipeline;
+import org.tensorflow.lite.examples.detection.tflite.ResolutionController;
+import org.tensorflow.lite.examples.detection.tflite.TiledDetector;
 import org.tensorflow.lite.examples.detection.tflite.YoloV5Classifier;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
+import org.tensorflow.lite.examples.detection.tracking.SceneChangeGate;
 
 import android.speech.tts.TextToSpeech;
 
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.text.Text;
-import com.google.mlkit.vision.text.TextRecognition;
 import com.google.mlkit.vision.text.TextRecognizer;
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
 
-import java.util.Locale;
 import java.util.Queue;
+import java.util.Set;
 
 /**
  * Bu sınıf, nesne algılama ve metin tanıma yeteneklerine sahip bir TensorFlow Lite modelini kullanarak kameradan görüntüleri işler.
@@ -55,14 +58,30 @@ import java.util.Queue;
  */
 public class DetectorActivity extends CameraActivity implements OnImageAvailableListener {
     private TextToSpeech tts; // Metni konuşma çıktısı üretmek için kullanılan TextToSpeech sınıfı
+    private TextRecognizer textRecognizer; // Metin tanıma istemcisi
     private static final Logger LOGGER = new Logger();
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.8f; // Nesne algılaması için minimum güven düzeyi
     private static final boolean MAINTAIN_ASPECT = true;
     private static final Size DESIRED_PREVIEW_SIZE = new Size(416, 416); // İstenen önizleme boyutu
     private static final boolean SAVE_PREVIEW_BITMAP = false;
+    private static final boolean USE_FUSED_YUV_INPUT = true; // Model girişini ARGB bitmap yerine doğrudan YUV'dan yaz
+    private static final boolean USE_DETECTION_PIPELINE = true; // Ön işleme, çıkarım ve son işlemeyi ardışık düzende çalıştır
+    private static final long OCR_INTERVAL_MS = 1500; // İki metin tanıma arasındaki en kısa süre
+    private static final boolean USE_RECTANGULAR_INPUT = true; // Model girişini kare yerine kameranın en boy oranında kullan
+    private static final boolean USE_ADAPTIVE_RESOLUTION = true; // Model giriş boyutunu ölçülen gecikmeye göre değiştir
+    private static final long LATENCY_BUDGET_MS = 150; // Karenin gelişinden sonuçlara kadar hedeflenen p95 gecikmesi
+    private static final boolean USE_KEYFRAME_DETECTION = true; // Algılayıcıyı yalnızca anahtar karelerde çalıştır, aradaki karelerde kutuları takipçiyle taşı
+    private static final boolean USE_TILED_INFERENCE = false; // Uzaktaki küçük levhalar için tam çözünürlüklü kareyi parçalara bölerek algıla
+    private static final Size TILED_PREVIEW_SIZE = new Size(1280, 960); // Parçalı algılamada istenen önizleme boyutu
+    private static final long TILE_BUDGET_MS = 300; // Bir karede parçalara ayrılan en uzun süre
+    private static final boolean USE_MOTION_GATE = true; // Sahne değişmediğinde algılayıcıyı çalıştırmadan son sonucu kullan
+    private static final float SCENE_CHANGE_THRESHOLD = 6.0f; // Küçük resimde piksel başına ortalama parlaklık farkı eşiği (0-255)
+    private static final int MAX_REUSE_AGE = 30; // Bir sonucun art arda kullanılabileceği en fazla kare sayısı
     private static final float TEXT_SIZE_DIP = 10; // Metin boyutu
     OverlayView trackingOverlay;
     private YoloV5Classifier detector; // Nesne algılama sınıflandırıcısı
+    private volatile DetectionPipeline detectionPipeline; // Eşzamansız algılama hattı
+    private TiledDetector tiledDetector; // Parçalı algılayıcı; kapalıysa null
     private Bitmap rgbFrameBitmap = null; // Kameradan alınan görüntünün RGB formatındaki kopyası
     private Bitmap croppedBitmap = null; // Kesilmiş görüntü
     private Bitmap cropCopyBitmap = null; // Kesilmiş görüntünün bir kopyası
@@ -71,10 +90,16 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private long timestamp = 0; // Görüntü zaman damgası
     private Matrix frameToCropTransform; // Çerçeve kesimi dönüşüm matrisi
     private Matrix cropToFrameTransform; // Kesimden çerçeve dönüşüm matrisi
+    private int sensorOrientation; // Kameranın ekrana göre dönüşü
+    private boolean rectangularInput; // Model dikdörtgen girişle çalışabiliyor mu?
+    private ResolutionController resolutionController; // Giriş boyutu denetleyicisi; kapalıysa null
     private MultiBoxTracker tracker; // Nesne takipçisi
+    private SceneChangeGate sceneChangeGate; // Sahne değişikliği kapısı; kapalıysa null
     private long lastOCRUpdateTime = 0; // Son metin tanıma güncelleme zamanı
     private boolean isObjectDetected = false; // Nesne algılandı mı?
-    private final Queue<String> objectSpeakQueue = new LinkedList<>(); // Algılanan nesneler için konuşma kuyruğu
+    private final Queue<Classifier.Recognition> objectSpeakQueue = new LinkedList<>(); // Algılanan nesneler için konuşma kuyruğu
+    private final Set<String> announcedTrackIds = new HashSet<>(); // Seslendirilmiş takip kimlikleri
+    private boolean firstAnnouncementLogged = false; // İlk levha duyurusunun süresi yazıldı mı?
     private final Queue<String> textSpeakQueue = new LinkedList<>(); // Tanınan metinler için konuşma kuyruğu
     private int utteranceId = 0; // Konuşma kimliği
 
@@ -124,9 +149,12 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         handler.post(runnable);
 
-        tts = new TextToSpeech(getApplicationContext(), status -> {
-            if (status != TextToSpeech.ERROR) {
-                tts.setLanguage(new Locale("tr", "TR")); // Türkçe dilini ayarlayın
+        // Konuşma motoru ve metin tanıma istemcisi uygulama açılırken hazırlanır
+        final StartupWarmUp warmUp = StartupWarmUp.get(this);
+        textRecognizer = warmUp.getTextRecognizer();
+        tts = warmUp.getTextToSpeech();
+        warmUp.whenTextToSpeechReady(() -> {
+            if (warmUp.isTextToSpeechAvailable()) {
                 tts.setSpeechRate(1.0f);
                 tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
                     @Override
@@ -145,6 +173,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                     }
                 });
                 tts.speak("Uygulama kullanıma hazır", TextToSpeech.QUEUE_FLUSH, null, "StartID"); // Konuş
+                LOGGER.i("Ready prompt %d ms after process start", warmUp.getElapsedMillis());
             }
         });
     }
@@ -156,7 +185,9 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         String text = null;
         String idPrefix = null;
         if (!objectSpeakQueue.isEmpty()) {
-            text = objectSpeakQueue.poll();
+            final Classifier.Recognition object = objectSpeakQueue.poll();
+            announcedTrackIds.add(object.getId());
+            text = object.getTitle() + " Algılandı.";
             idPrefix = "ObjectSpeak";
         } else if (!textSpeakQueue.isEmpty()) {
             text = textSpeakQueue.poll();
@@ -169,20 +200,26 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     }
 
     /**
-     * Nesne algılama sonuçlarını günceller ve konuşma kuyruğunu güncellemek için çağırır.
+     * Konuşma kuyruğunu takip edilen nesnelerle günceller. Kimliği takipçiden gelir; aynı levha
+     * takip edildiği sürece yalnızca bir kez seslendirilir.
      */
-    /**
-     * Nesne algılama sonuçlarını günceller ve konuşma kuyruğunu güncellemek için çağırır.
-     */
-    private void updateSpeak(final List<Classifier.Recognition> results) {
+    private void updateSpeak(final List<Classifier.Recognition> tracked) {
         objectSpeakQueue.clear();  // Mevcut kuyruğu temizle
-        if (results != null && !results.isEmpty()) {
-            for (Classifier.Recognition result : results) {
-                if (result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
-                    objectSpeakQueue.add(result.getTitle() + " Algılandı.");
+        final Set<String> trackedIds = new HashSet<>();
+        for (Classifier.Recognition recognition : tracked) {
+            trackedIds.add(recognition.getId());
+            if (recognition.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API
+                    && !announcedTrackIds.contains(recognition.getId())) {
+                objectSpeakQueue.add(recognition);
+                if (!firstAnnouncementLogged) {
+                    firstAnnouncementLogged = true;
+                    LOGGER.i("First announcement %d ms after process start",
+                            StartupWarmUp.get(this).getElapsedMillis());
                 }
             }
         }
+        // Kimlikler yeniden kullanılmaz; takibi biten nesneler unutulabilir.
+        announcedTrackIds.retainAll(trackedIds);
     }
 
     /**
@@ -197,12 +234,14 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         borderedText.setTypeface(Typeface.MONOSPACE);
 
         tracker = new MultiBoxTracker(this);
+        if (USE_MOTION_GATE) {
+            sceneChangeGate = new SceneChangeGate(SCENE_CHANGE_THRESHOLD, MAX_REUSE_AGE);
+        }
 
-        final int modelIndex = 0;
-        final String modelString = modelStrings.get(modelIndex);
-
+        // Model uygulama açılırken yüklenip ısıtılır; açılış ekranı bunu bekler, burada yalnızca
+        // hazırlık bitmemişse beklenir.
         try {
-            detector = DetectorFactory.getDetector(getAssets(), modelString);
+            detector = StartupWarmUp.get(this).awaitDetector();
         } catch (final IOException e) {
             e.printStackTrace();
             LOGGER.e(e, "Exception initializing classifier!");
@@ -211,28 +250,36 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                             getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
             toast.show();
             finish();
+            return;
         }
 
-        int cropSize = detector.getInputSize();
-
         previewWidth = size.getWidth();
         previewHeight = size.getHeight();
 
-        int sensorOrientation = rotation - getScreenOrientation();
+        sensorOrientation = rotation - getScreenOrientation();
         LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
+        // Uzun kenar modelinki kalır, kısa kenar kameranın en boy oranına göre küçülür; böylece
+        // kırpılıp atılan pikseller için çıkarım yapılmaz. Model dikdörtgen girişle
+        // çalışamıyorsa kare girişle devam edilir.
+        final int inputSize = detector.getInputSize();
+        rectangularInput = USE_RECTANGULAR_INPUT;
+        try {
+            final int[] shape = inputShapeFor(inputSize);
+            detector.setInputSize(shape[0], shape[1]);
+        } catch (final RuntimeException e) {
+            LOGGER.e(e, "Model cannot run at a rectangular input, keeping it square");
+            rectangularInput = false;
+            detector.setInputSize(inputSize);
+        }
+        if (USE_ADAPTIVE_RESOLUTION && !USE_TILED_INFERENCE) {
+            resolutionController = new ResolutionController(ResolutionController.DEFAULT_SIZES,
+                    inputSize, LATENCY_BUDGET_MS, ResolutionController.DEFAULT_WINDOW);
+        }
+
         LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
         rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
-
-        frameToCropTransform =
-                ImageUtils.getTransformationMatrix(
-                        previewWidth, previewHeight,
-                        cropSize, cropSize,
-                        sensorOrientation, MAINTAIN_ASPECT);
-
-        cropToFrameTransform = new Matrix();
-        frameToCropTransform.invert(cropToFrameTransform);
+        configureCrop(detector.getInputWidth(), detector.getInputHeight());
 
         trackingOverlay = findViewById(R.id.tracking_overlay);
         trackingOverlay.addCallback(
@@ -244,6 +291,106 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                 });
 
         tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+        if (USE_TILED_INFERENCE) {
+            // Değişmeyen parçaların sonuçları, tüm sahne için kullanılan eşik ve yaşla önbellekten
+            // alınır.
+            tiledDetector = new TiledDetector(detector, TiledDetector.DEFAULT_OVERLAP,
+                    SCENE_CHANGE_THRESHOLD, MAX_REUSE_AGE);
+        } else if (USE_FUSED_YUV_INPUT && USE_DETECTION_PIPELINE) {
+            closeDetectionPipeline();
+            detectionPipeline = new DetectionPipeline(detector);
+        }
+    }
+
+    /**
+     * Uzun kenarı longSide olan model girişinin genişlik ve yüksekliğini döndürür. Dikdörtgen
+     * girişte kısa kenar, döndürülmüş kameranın en boy oranına en yakın 32'nin katıdır.
+     */
+    private int[] inputShapeFor(final int longSide) {
+        if (!rectangularInput) {
+            return new int[]{longSide, longSide};
+        }
+        final boolean transpose = (Math.abs(sensorOrientation) + 90) % 180 == 0;
+        final int frameWidth = transpose ? previewHeight : previewWidth;
+        final int frameHeight = transpose ? previewWidth : previewHeight;
+        final int stride = YoloV5Classifier.MAX_STRIDE;
+        final float aspect = (float) Math.min(frameWidth, frameHeight) / Math.max(frameWidth, frameHeight);
+        final int shortSide = Math.max(stride, Math.round(longSide * aspect / stride) * stride);
+        return frameWidth >= frameHeight
+                ? new int[]{longSide, shortSide}
+                : new int[]{shortSide, longSide};
+    }
+
+    /**
+     * Kırpılmış görüntüyü ve çerçeve ile model girişi arasındaki dönüşümleri cropWidth x
+     * cropHeight için kurar.
+     */
+    private void configureCrop(final int cropWidth, final int cropHeight) {
+        croppedBitmap = Bitmap.createBitmap(cropWidth, cropHeight, Config.ARGB_8888);
+
+        frameToCropTransform =
+                ImageUtils.getTransformationMatrix(
+                        previewWidth, previewHeight,
+                        cropWidth, cropHeight,
+                        sensorOrientation, MAINTAIN_ASPECT);
+
+        cropToFrameTransform = new Matrix();
+        frameToCropTransform.invert(cropToFrameTransform);
+    }
+
+    /**
+     * Denetleyici başka bir giriş boyutu seçtiyse modeli ve kırpmayı o boyuta geçirir. Hattaki
+     * kareler eski boyutla bitirilir, hat yeni boyutun tamponlarıyla yeniden kurulur. Eşzamanlı
+     * yolda bir algılama sürerken beklenir, geçiş sonraki karelerden birinde yapılır.
+     */
+    private synchronized void applyInputSize() {
+        final int size = resolutionController.getSize();
+        if (size == detector.getInputSize() || computingDetection) {
+            return;
+        }
+        final int[] shape = inputShapeFor(size);
+        final boolean pipelined = detectionPipeline != null;
+        closeDetectionPipeline();
+        try {
+            detector.setInputSize(shape[0], shape[1]);
+            configureCrop(shape[0], shape[1]);
+            LOGGER.i("Input size %dx%d, p95 latency %.1f ms", shape[0], shape[1],
+                    resolutionController.getP95Nanos() / 1e6);
+        } catch (final RuntimeException e) {
+            LOGGER.e(e, "Model cannot run at %dx%d", shape[0], shape[1]);
+            resolutionController.removeSize(size);
+        }
+        if (pipelined) {
+            detectionPipeline = new DetectionPipeline(detector);
+        }
+    }
+
+    /**
+     * Activity durakladığında algılama hattını kapatır.
+     */
+    @Override
+    public synchronized void onPause() {
+        closeDetectionPipeline();
+        if (sceneChangeGate != null) {
+            LOGGER.i("Scene change gate: %d of %d frames skipped, %.3f ms per check",
+                    sceneChangeGate.getSkippedFrames(), sceneChangeGate.getCheckedFrames(),
+                    sceneChangeGate.getMeanCheckNanos() / 1e6);
+        }
+        super.onPause();
+    }
+
+    /**
+     * Algılama hattındaki kareleri bitirir ve iş parçacıklarını durdurur.
+     */
+    private void closeDetectionPipeline() {
+        final DetectionPipeline pipeline = detectionPipeline;
+        detectionPipeline = null;
+        if (pipeline != null) {
+            LOGGER.i("Detection pipeline: %d frames submitted, %d dropped",
+                    pipeline.getSubmittedFrames(), pipeline.getDroppedFrames());
+            pipeline.close();
+        }
     }
 
     /**
@@ -253,85 +400,296 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     protected void processImage() {
         ++timestamp;
         final long currTimestamp = timestamp;
+        final long frameStart = System.nanoTime();
         trackingOverlay.postInvalidate();
 
+        // Aradaki karelerde kutular blok eşleme ile taşınır; algılayıcı, takipçi anahtar kare
+        // istediğinde çalışır.
+        if (USE_KEYFRAME_DETECTION) {
+            tracker.onFrame(getYuvFrame(), currTimestamp);
+            if (!tracker.shouldDetect()) {
+                readyForNextImage();
+                return;
+            }
+        }
+
+        // Bulanık veya kötü pozlanmış karelerde algılama ve metin tanıma yapılmaz; takip sürer.
+        if (!isFrameQualityAcceptable()) {
+            readyForNextImage();
+            return;
+        }
+
+        // Sahne son algılanan kareden beri değişmediyse son sonuç kullanılır; kaybolan veya yeni
+        // görülen kutular varsa algılayıcı yine çalışır.
+        if (sceneChangeGate != null
+                && sceneChangeGate.isUnchanged(getYuvFrame())
+                && !tracker.isTrackingDegraded()) {
+            sceneChangeGate.onFrameSkipped();
+            LOGGER.v("Scene unchanged (%.2f), reusing result for %d frames, check took %.3f ms",
+                    sceneChangeGate.getChange(), sceneChangeGate.getReuseAge(),
+                    sceneChangeGate.getLastCheckNanos() / 1e6);
+            readyForNextImage();
+            return;
+        }
+
+        if (resolutionController != null) {
+            applyInputSize();
+        }
+        final int inputSize = detector.getInputSize();
+
+        if (tiledDetector != null) {
+            processImageTiled(currTimestamp);
+            return;
+        }
+
+        final DetectionPipeline pipeline = detectionPipeline;
+        if (pipeline != null) {
+            processImagePipelined(pipeline, currTimestamp, frameStart, inputSize);
+            return;
+        }
+
         // Kilitleme gerekmediği için mutex gerekmez.
         if (computingDetection) {
             readyForNextImage();
             return;
         }
         computingDetection = true;
+        onDetectionStarted();
         LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+        // Model girişi YUV düzlemlerinden doğrudan yazılır; ARGB bitmap yalnızca OCR, önizleme
+        // kaydı veya debug çizimi gerektiğinde üretilir.
+        final boolean needsBitmap = !USE_FUSED_YUV_INPUT || SAVE_PREVIEW_BITMAP || isDebug() || isOcrDue();
+        final Matrix cropToFrame = cropToFrameTransform;
+        if (USE_FUSED_YUV_INPUT) {
+            detector.convertFrameToByteBuffer(getYuvFrame(), cropToFrame);
+        }
+        if (needsBitmap) {
+            rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+        }
 
         readyForNextImage();
 
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-        // Gerçek TF girişini incelemek için.
-        if (SAVE_PREVIEW_BITMAP) {
-            ImageUtils.saveBitmap(croppedBitmap);
+        if (needsBitmap) {
+            final Canvas canvas = new Canvas(croppedBitmap);
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+            // Gerçek TF girişini incelemek için.
+            if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(croppedBitmap);
+            }
         }
 
         runInBackground(
                 () -> {
                     LOGGER.i("Running detection on image " + currTimestamp);
-                    final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
+                    final List<Classifier.Recognition> results = USE_FUSED_YUV_INPUT
+                            ? detector.recognizeConvertedFrame()
+                            : detector.recognizeImage(croppedBitmap);
 
 
-                    Log.e("CHECK", "run: " + results.size());
+                    handleResults(currTimestamp, results, needsBitmap ? croppedBitmap : null, cropToFrame);
+                    onFrameDone(inputSize, frameStart);
 
-                    if (results.isEmpty()) {
-                        if (isObjectDetected && !computingOCR) {
-                            runTextRecognition(croppedBitmap);
-                        } else {
-                            runOnUiThread(this::clearSpeakQueue);
-                        }
-                    } else {
-                        isObjectDetected = true;
-                        updateSpeak(results);
+                    computingDetection = false;
+                });
+    }
+
+    /**
+     * Kareyi algılama hattına gönderir. Model girişi bu iş parçacığında YUV düzlemlerinden yazılır;
+     * hat doluysa kare atlanır. Sonuçlar çıkarım iş parçacığına geri gönderilir. Bitmap gereken
+     * karelerde kırpılmış görüntünün bir kopyası sonuçlarla birlikte kullanılır, çünkü
+     * croppedBitmap bir sonraki karede yeniden yazılır.
+     */
+    private void processImagePipelined(final DetectionPipeline pipeline, final long currTimestamp,
+                                       final long frameStart, final int inputSize) {
+        final boolean needsBitmap = SAVE_PREVIEW_BITMAP || isDebug() || isOcrDue();
+        Bitmap frameBitmap = null;
+        if (needsBitmap) {
+            rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            final Canvas canvas = new Canvas(croppedBitmap);
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+            if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(croppedBitmap);
+            }
+            frameBitmap = Bitmap.createBitmap(croppedBitmap);
+        }
+        final Bitmap resultBitmap = frameBitmap;
+        // Giriş boyutu değişince alan yeni bir dönüşümle değiştirilir; sonuçlar, kare gönderilirken
+        // kullanılan dönüşümle eşlenir.
+        final Matrix cropToFrame = cropToFrameTransform;
+
+        final boolean submitted = pipeline.submit(getYuvFrame(), cropToFrame, currTimestamp,
+                new DetectionPipeline.Callback() {
+                    @Override
+                    public void onResults(long frameId, List<Classifier.Recognition> results) {
+                        // Sonuçlar, eşzamanlı ve parçalı yollardaki gibi çıkarım iş parçacığında
+                        // (runInBackground) sırayla işlenir; konuşma kuyruğu ve OCR durumu yalnızca
+                        // bu iş parçacığından değişir. Kareye özgü dönüşüm yukarıda yakalanır.
+                        runInBackground(() -> {
+                            handleResults(frameId, results, resultBitmap, cropToFrame);
+                            onFrameDone(inputSize, frameStart);
+                        });
                     }
 
-                    cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                    final Canvas canvas1 = new Canvas(cropCopyBitmap);
-                    final Paint paint = new Paint();
-                    paint.setColor(Color.RED);
-                    paint.setStyle(Style.STROKE);
-                    paint.setStrokeWidth(2.0f);
+                    @Override
+                    public void onFailure(long frameId, Throwable error) {
+                        LOGGER.e(error, "Detection failed on image " + frameId);
+                        // Algılamanın başladığı bildirilmişti; sonuç gelmeyeceği için takipçi ve
+                        // sahne kapısı bir sonraki karede yeniden algılama ister, gecikme yine
+                        // denetleyiciye bildirilir.
+                        runInBackground(() -> {
+                            onDetectionFailed();
+                            onFrameDone(inputSize, frameStart);
+                        });
+                    }
+                });
+        if (submitted) {
+            onDetectionStarted();
+        } else {
+            LOGGER.v("Dropped image " + currTimestamp + ", detection pipeline is busy.");
+        }
+        readyForNextImage();
+    }
 
-                    runTextRecognition(croppedBitmap);
+    /**
+     * Kareyi tam çözünürlükte, model boyutunda örtüşen parçalara bölerek algılar; uzaktaki küçük
+     * levhalar kırpılmış görüntüye küçültülünce kaybolur. Parçalar kareyi algılama sürerken
+     * okuduğundan kare, algılama bitene kadar bırakılmaz.
+     */
+    private void processImageTiled(final long currTimestamp) {
+        if (computingDetection) {
+            readyForNextImage();
+            return;
+        }
+        computingDetection = true;
+        onDetectionStarted();
+
+        final boolean needsBitmap = SAVE_PREVIEW_BITMAP || isDebug() || isOcrDue();
+        if (needsBitmap) {
+            rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            final Canvas canvas = new Canvas(croppedBitmap);
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+            if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(croppedBitmap);
+            }
+        }
+        final YuvFrame frame = getYuvFrame();
+        final Matrix cropToFrame = cropToFrameTransform;
 
-                    final List<Classifier.Recognition> mappedRecognitions =
-                            new LinkedList<>();
+        runInBackground(
+                () -> {
+                    final List<Classifier.Recognition> results = tiledDetector.detect(
+                            frame, cropToFrame, sensorOrientation, TILE_BUDGET_MS * 1_000_000L);
+                    readyForNextImage();
+                    handleResults(currTimestamp, results, needsBitmap ? croppedBitmap : null, null);
+                    computingDetection = false;
+                });
+    }
 
-                    for (final Classifier.Recognition result : results) {
-                        final RectF location = result.getLocation();
-                        if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
-                            canvas1.drawRect(location, paint);
+    /**
+     * Algılama sonuçlarını işler: konuşma kuyruğunu günceller, gerekiyorsa metin tanımayı başlatır
+     * ve sonuçları takipçiye verir. frameBitmap yalnızca bitmap üretilen karelerde doludur.
+     * cropToFrame, kare algılamaya gönderilirken kullanılan kırpmadan kareye dönüşümdür; kutular
+     * zaten kamera karesindeyse null'dur.
+     */
+    private void handleResults(final long currTimestamp, final List<Classifier.Recognition> results,
+                               final Bitmap frameBitmap, final Matrix cropToFrame) {
+        if (results.isEmpty()) {
+            if (isObjectDetected && !computingOCR) {
+                if (frameBitmap != null) {
+                    runTextRecognition(frameBitmap);
+                }
+            } else {
+                runOnUiThread(this::clearSpeakQueue);
+            }
+        } else {
+            isObjectDetected = true;
+        }
 
-                            cropToFrameTransform.mapRect(location);
+        Canvas canvas1 = null;
+        final Paint paint = new Paint();
+        if (frameBitmap != null) {
+            cropCopyBitmap = Bitmap.createBitmap(frameBitmap);
+            canvas1 = new Canvas(cropCopyBitmap);
+            paint.setColor(Color.RED);
+            paint.setStyle(Style.STROKE);
+            paint.setStrokeWidth(2.0f);
 
-                            result.setLocation(location);
-                            mappedRecognitions.add(result);
+            runTextRecognition(frameBitmap);
+        }
 
-                        }
+        final List<Classifier.Recognition> mappedRecognitions =
+                new LinkedList<>();
+
+        for (final Classifier.Recognition result : results) {
+            final RectF location = result.getLocation();
+            if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
+                if (cropToFrame != null) {
+                    if (canvas1 != null) {
+                        canvas1.drawRect(location, paint);
                     }
+                    cropToFrame.mapRect(location);
+                }
 
-                    tracker.trackResults(mappedRecognitions, currTimestamp);
-                    trackingOverlay.postInvalidate();
+                result.setLocation(location);
+                mappedRecognitions.add(result);
 
-                    computingDetection = false;
+            }
+        }
 
-                    runOnUiThread(
-                            () -> {
-                                showFrameInfo();
-                                showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                                showInference();
-                            });
+        tracker.trackResults(mappedRecognitions, currTimestamp);
+        if (!results.isEmpty()) {
+            updateSpeak(tracker.getTrackedRecognitions());
+        }
+        trackingOverlay.postInvalidate();
+
+        runOnUiThread(
+                () -> {
+                    showFrameInfo();
+                    showCropInfo(croppedBitmap.getWidth() + "x" + croppedBitmap.getHeight());
+                    showInference();
                 });
     }
 
+    /**
+     * Algılayıcı geçerli karede çalışmaya başladığında takipçiye ve sahne değişikliği kapısına
+     * bildirir.
+     */
+    private void onDetectionStarted() {
+        tracker.onDetectionStarted();
+        if (sceneChangeGate != null) {
+            sceneChangeGate.onDetectionStarted();
+        }
+    }
+
+    /**
+     * Başlayan bir algılama sonuç vermeden bittiğinde takipçiye ve sahne değişikliği kapısına
+     * bildirir; ikisi de bir sonraki karede yeniden algılama ister.
+     */
+    private void onDetectionFailed() {
+        tracker.onDetectionFailed();
+        if (sceneChangeGate != null) {
+            sceneChangeGate.onDetectionFailed();
+        }
+    }
+
+    /**
+     * Karenin gelişinden sonuçların işlenmesine kadar geçen süreyi giriş boyutu denetleyicisine
+     * bildirir.
+     */
+    private void onFrameDone(final int inputSize, final long frameStart) {
+        if (resolutionController != null) {
+            resolutionController.onFrame(inputSize, System.nanoTime() - frameStart);
+        }
+    }
+
+    /**
+     * Son metin tanımadan bu yana OCR_INTERVAL_MS geçip geçmediğini döndürür.
+     */
+    private boolean isOcrDue() {
+        return System.currentTimeMillis() - lastOCRUpdateTime >= OCR_INTERVAL_MS;
+    }
+
     /**
      * Verilen bir bitmap üzerinde metin tanıma işlemini yürütür.
      */
@@ -339,14 +697,13 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         long currentTime = System.currentTimeMillis();
         final List<String> ignoreList = Arrays.asList("DUR", "STOP", "D", "P", "20", "30", "40", "50", "70", "90", "120");
 
-        if (currentTime - lastOCRUpdateTime < 1500) {
+        if (currentTime - lastOCRUpdateTime < OCR_INTERVAL_MS) {
             return;  // Son metin tanıma üzerinden 1.5 saniye geçmediyse, sadece dön
         }
         lastOCRUpdateTime = currentTime;  // Son metin tanıma zamanını güncelle
 
         InputImage image = InputImage.fromBitmap(bitmap, 0);
-        TextRecognizer recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
-        recognizer.process(image)
+        textRecognizer.process(image)
                 .addOnSuccessListener(
                         texts -> {
                             computingOCR = false;
@@ -397,7 +754,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
      */
     @Override
     protected Size getDesiredPreviewFrameSize() {
-        return DESIRED_PREVIEW_SIZE;
+        return USE_TILED_INFERENCE ? TILED_PREVIEW_SIZE : DESIRED_PREVIEW_SIZE;
     }
 
     /**
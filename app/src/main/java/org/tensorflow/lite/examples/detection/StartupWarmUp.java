@@ -0,0 +1,254 @@
+package org.tensorflow.lite.examples.detection;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.speech.tts.TextToSpeech;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.tflite.BackendSelector;
+import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.ThreadCountTuner;
+import org.tensorflow.lite.examples.detection.tflite.YoloV5Classifier;
+
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.text.TextRecognition;
+import com.google.mlkit.vision.text.TextRecognizer;
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
+
+/**
+ * Uygulama açılırken pahalı hazırlıkları paralel başlatır: modelin belleğe eşlenmesi, arka uç ve
+ * iş parçacığı seçimi ile birkaç boş çıkarım, konuşma motorunun başlatılması ve metin tanıma
+ * istemcisinin ilk kullanımı. Açılış ekranı sabit bir süre yerine bunların bitmesini bekler;
+ * algılama ekranı da hazır nesneleri kullanır.
+ * <p>
+ * Süreç boyunca tek örnek vardır ve nesneleri süreçle birlikte yaşar.
+ */
+public final class StartupWarmUp {
+
+    private static final Logger LOGGER = new Logger();
+
+    private static final int DETECTOR_WARMUP_RUNS = 2;
+    // Metin tanıma modelinin yüklenmesi için boş görüntünün kenar uzunluğu
+    private static final int OCR_WARMUP_SIZE = 64;
+    private static final int NUM_TASKS = 3;
+
+    private static StartupWarmUp instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final long startTime = SystemClock.elapsedRealtime();
+    private final String modelFilename;
+    private final TextToSpeech tts;
+    private final TextRecognizer textRecognizer;
+
+    // this ile korunur.
+    private YoloV5Classifier detector;
+    private IOException detectorError;
+    private boolean detectorDone;
+    private boolean ttsDone;
+    private boolean ttsAvailable;
+    private int pendingTasks = NUM_TASKS;
+    private final List<Runnable> readyCallbacks = new ArrayList<>();
+    private final List<Runnable> ttsCallbacks = new ArrayList<>();
+
+    /**
+     * Tek örneği döndürür, ilk çağrıda hazırlıkları başlatır. Ana iş parçacığından çağrılmalıdır.
+     */
+    public static synchronized StartupWarmUp get(Context context) {
+        if (instance == null) {
+            instance = new StartupWarmUp(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StartupWarmUp(Context context) {
+        this.context = context;
+        modelFilename = defaultModel(context.getAssets());
+
+        new Thread(this::loadDetector, "WarmUp-detector").start();
+
+        tts = new TextToSpeech(context, this::onTextToSpeechInit);
+
+        textRecognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
+        warmUpTextRecognizer();
+    }
+
+    public String getModelFilename() {
+        return modelFilename;
+    }
+
+    /**
+     * Hazırlığı biten algılayıcıyı döndürür; henüz bitmediyse bekler.
+     *
+     * @throws IOException model yüklenemediyse.
+     */
+    public synchronized YoloV5Classifier awaitDetector() throws IOException {
+        boolean interrupted = false;
+        while (!detectorDone) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (detectorError != null) {
+            throw detectorError;
+        }
+        return detector;
+    }
+
+    /**
+     * Konuşma motoru; {@link #whenTextToSpeechReady} çağrılana kadar başlatılıyor olabilir.
+     */
+    public TextToSpeech getTextToSpeech() {
+        return tts;
+    }
+
+    /**
+     * Konuşma motoru başlatılabildiyse true.
+     */
+    public synchronized boolean isTextToSpeechAvailable() {
+        return ttsAvailable;
+    }
+
+    public TextRecognizer getTextRecognizer() {
+        return textRecognizer;
+    }
+
+    /**
+     * Konuşma motorunun başlatılması bittiğinde, başarılı olsun olmasın, ana iş parçacığında
+     * çalıştırır.
+     */
+    public synchronized void whenTextToSpeechReady(Runnable callback) {
+        if (ttsDone) {
+            mainHandler.post(callback);
+        } else {
+            ttsCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Tüm hazırlıklar bittiğinde ana iş parçacığında çalıştırır.
+     */
+    public synchronized void whenReady(Runnable callback) {
+        if (pendingTasks == 0) {
+            mainHandler.post(callback);
+        } else {
+            readyCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Süreç başlangıcından bu yana geçen süre; açılış ölçümleri için.
+     */
+    public long getElapsedMillis() {
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+
+    private void loadDetector() {
+        YoloV5Classifier d = null;
+        IOException error = null;
+        try {
+            d = DetectorFactory.getDetector(context.getAssets(), modelFilename);
+            BackendSelector.select(context, d, modelFilename);
+            ThreadCountTuner.apply(context, d, modelFilename);
+            // İlk gerçek karenin tembel başlatma maliyetini ödememesi için
+            d.warmUp(DETECTOR_WARMUP_RUNS);
+        } catch (IOException e) {
+            error = e;
+        } catch (Throwable e) {
+            // Yerel kitaplıkların UnsatisfiedLinkError'ı ve delegelerin Error'ları da hata olarak
+            // yayınlanır; yoksa awaitDetector hiç dönmez ve açılış ekranı kapanmaz.
+            error = new IOException("Classifier could not be initialized", e);
+        }
+        final YoloV5Classifier failed = error != null ? d : null;
+        if (error != null) {
+            d = null;
+        }
+        try {
+            if (error != null) {
+                LOGGER.e(error, "Exception initializing classifier!");
+                if (failed != null) {
+                    failed.close();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                detector = d;
+                detectorError = error;
+                detectorDone = true;
+                notifyAll();
+            }
+            taskDone("detector");
+        }
+    }
+
+    // Tanıma kendi iş parçacıklarında çalışır; ilk çağrı tanıma modelini yükler.
+    private void warmUpTextRecognizer() {
+        final Bitmap blank =
+                Bitmap.createBitmap(OCR_WARMUP_SIZE, OCR_WARMUP_SIZE, Bitmap.Config.ARGB_8888);
+        textRecognizer.process(InputImage.fromBitmap(blank, 0))
+                .addOnCompleteListener(task -> taskDone("text recognizer"));
+    }
+
+    private void onTextToSpeechInit(int status) {
+        final boolean available = status != TextToSpeech.ERROR;
+        if (available) {
+            tts.setLanguage(new Locale("tr", "TR")); // Türkçe dilini ayarlar
+        }
+        final List<Runnable> callbacks;
+        synchronized (this) {
+            ttsDone = true;
+            ttsAvailable = available;
+            callbacks = new ArrayList<>(ttsCallbacks);
+            ttsCallbacks.clear();
+        }
+        for (final Runnable callback : callbacks) {
+            mainHandler.post(callback);
+        }
+        taskDone("text to speech");
+    }
+
+    private void taskDone(String task) {
+        final List<Runnable> callbacks;
+        synchronized (this) {
+            LOGGER.i("Warm-up: %s ready after %d ms", task, getElapsedMillis());
+            if (--pendingTasks > 0) {
+                return;
+            }
+            callbacks = new ArrayList<>(readyCallbacks);
+            readyCallbacks.clear();
+        }
+        for (final Runnable callback : callbacks) {
+            mainHandler.post(callback);
+        }
+    }
+
+    /**
+     * Algılama ekranının açtığı model: varlıklardaki ilk .tflite dosyası.
+     */
+    private static String defaultModel(AssetManager assets) {
+        try {
+            for (final String file : assets.list("")) {
+                if (file.endsWith(".tflite")) {
+                    return file;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.e(e, "Could not list the models");
+        }
+        return null;
+    }
+}
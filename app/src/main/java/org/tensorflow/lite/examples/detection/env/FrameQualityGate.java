@@ -0,0 +1,165 @@
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Rejects camera frames not worth running the detector on: motion-blurred ones, whose sharpness
+ * falls well below that of recent frames, and badly exposed ones, with much of the image clipped
+ * to black or white. Both are measured on a grid of at most {@value #MAX_GRID} x {@value
+ * #MAX_GRID} samples of the Y plane, so a check costs a small fraction of an inference. Sharpness
+ * is the variance of the Laplacian over the grid. It is judged against a running mean of recent
+ * frames rather than a fixed level, since a plain wall is never as sharp as a street, and after
+ * {@code maxRejectedInRow} rejections a frame is accepted anyway.
+ */
+public final class FrameQualityGate {
+  // Sample grid side bound, and the least distance between samples in frame pixels.
+  static final int MAX_GRID = 160;
+  private static final int MIN_STEP = 2;
+  // Luma levels at or beyond which a sample counts as clipped.
+  private static final int DARK = 8;
+  private static final int BRIGHT = 247;
+  // Weight of the newest frame in the running mean sharpness, and frames before it is trusted.
+  private static final float SHARPNESS_SMOOTHING = 0.1f;
+  private static final int WARM_UP_FRAMES = 10;
+
+  private final float minRelativeSharpness;
+  private final float maxClippedFraction;
+  private final int maxRejectedInRow;
+  private byte[] grid = new byte[0];
+  private float sharpness;
+  private float meanSharpness;
+  private float clippedFraction;
+  private int rejectedInRow;
+  private long checkedFrames;
+  private long blurredFrames;
+  private long exposureFrames;
+  private long lastCheckNanos;
+  private long totalCheckNanos;
+
+  /**
+   * @param minRelativeSharpness fraction of the recent mean sharpness under which a frame is
+   *     blurred
+   * @param maxClippedFraction fraction of clipped samples over which a frame is badly exposed
+   * @param maxRejectedInRow rejections after which the next frame is accepted whatever its quality
+   */
+  public FrameQualityGate(
+      final float minRelativeSharpness, final float maxClippedFraction, final int maxRejectedInRow) {
+    this.minRelativeSharpness = minRelativeSharpness;
+    this.maxClippedFraction = maxClippedFraction;
+    this.maxRejectedInRow = maxRejectedInRow;
+  }
+
+  /** Measures {@code frame} and returns true if it is sharp and well exposed enough. */
+  public synchronized boolean accept(final YuvFrame frame) {
+    final long start = System.nanoTime();
+    measure(frame);
+    ++checkedFrames;
+    final boolean blurred =
+        checkedFrames > WARM_UP_FRAMES && sharpness < minRelativeSharpness * meanSharpness;
+    final boolean badlyExposed = clippedFraction > maxClippedFraction;
+    meanSharpness =
+        checkedFrames == 1
+            ? sharpness
+            : meanSharpness + SHARPNESS_SMOOTHING * (sharpness - meanSharpness);
+
+    boolean accepted = true;
+    if ((blurred || badlyExposed) && rejectedInRow < maxRejectedInRow) {
+      accepted = false;
+      ++rejectedInRow;
+      if (blurred) {
+        ++blurredFrames;
+      } else {
+        ++exposureFrames;
+      }
+    } else {
+      rejectedInRow = 0;
+    }
+    lastCheckNanos = System.nanoTime() - start;
+    totalCheckNanos += lastCheckNanos;
+    return accepted;
+  }
+
+  /** Variance of the Laplacian of the last frame. */
+  public synchronized float getSharpness() {
+    return sharpness;
+  }
+
+  /** Running mean of the sharpness of recent frames. */
+  public synchronized float getMeanSharpness() {
+    return meanSharpness;
+  }
+
+  /** Fraction of the last frame clipped to black or white. */
+  public synchronized float getClippedFraction() {
+    return clippedFraction;
+  }
+
+  public synchronized long getCheckedFrames() {
+    return checkedFrames;
+  }
+
+  /** Frames rejected as blurred. */
+  public synchronized long getBlurredFrames() {
+    return blurredFrames;
+  }
+
+  /** Frames rejected as badly exposed, but sharp enough. */
+  public synchronized long getBadlyExposedFrames() {
+    return exposureFrames;
+  }
+
+  /** Time the last check took. */
+  public synchronized long getLastCheckNanos() {
+    return lastCheckNanos;
+  }
+
+  /** Mean time of a check. */
+  public synchronized long getMeanCheckNanos() {
+    return checkedFrames == 0 ? 0 : totalCheckNanos / checkedFrames;
+  }
+
+  private void measure(final YuvFrame frame) {
+    final int step =
+        Math.max(MIN_STEP, (Math.max(frame.width, frame.height) + MAX_GRID - 1) / MAX_GRID);
+    final int w = frame.width / step;
+    final int h = frame.height / step;
+    if (grid.length < w * h) {
+      grid = new byte[w * h];
+    }
+    int clipped = 0;
+    for (int gy = 0; gy < h; ++gy) {
+      final int row = gy * step * frame.yRowStride;
+      for (int gx = 0; gx < w; ++gx) {
+        final byte value = frame.y[row + gx * step];
+        grid[gy * w + gx] = value;
+        final int luma = value & 0xff;
+        if (luma <= DARK || luma >= BRIGHT) {
+          ++clipped;
+        }
+      }
+    }
+    clippedFraction = w * h == 0 ? 0 : (float) clipped / (w * h);
+
+    long sum = 0;
+    long sumSquares = 0;
+    int n = 0;
+    for (int gy = 1; gy < h - 1; ++gy) {
+      for (int gx = 1; gx < w - 1; ++gx) {
+        final int i = gy * w + gx;
+        final int laplacian =
+            4 * (grid[i] & 0xff)
+                - (grid[i - 1] & 0xff)
+                - (grid[i + 1] & 0xff)
+                - (grid[i - w] & 0xff)
+                - (grid[i + w] & 0xff);
+        sum += laplacian;
+        sumSquares += laplacian * laplacian;
+        ++n;
+      }
+    }
+    if (n == 0) {
+      sharpness = 0;
+      return;
+    }
+    final double mean = (double) sum / n;
+    sharpness = (float) ((double) sumSquares / n - mean * mean);
+  }
+}
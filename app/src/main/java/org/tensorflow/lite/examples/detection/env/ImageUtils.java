@@ -86,25 +86,35 @@ public class ImageUtils {
   }
 
   public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+    convertYUV420SPToARGB8888(input, width, height, output, WorkerPool.getDefault());
+  }
+
+  /** As above, with rows split into stripes on {@code pool}. */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input, final int width, final int height, final int[] output, WorkerPool pool) {
     final int frameSize = width * height;
-    for (int j = 0, yp = 0; j < height; j++) {
-      int uvp = frameSize + (j >> 1) * width;
-      int u = 0;
-      int v = 0;
-
-      for (int i = 0; i < width; i++, yp++) {
-        int y = 0xff & input[yp];
-        if ((i & 1) == 0) {
-          v = 0xff & input[uvp++];
-          u = 0xff & input[uvp++];
-        }
-
-        output[yp] = YUV2RGB(y, u, v);
-      }
-    }
+    pool.forRows(
+        height,
+        (stripe, fromRow, toRow) -> {
+          for (int j = fromRow, yp = fromRow * width; j < toRow; j++) {
+            int uvp = frameSize + (j >> 1) * width;
+            int u = 0;
+            int v = 0;
+
+            for (int i = 0; i < width; i++, yp++) {
+              int y = 0xff & input[yp];
+              if ((i & 1) == 0) {
+                v = 0xff & input[uvp++];
+                u = 0xff & input[uvp++];
+              }
+
+              output[yp] = YUV2RGB(y, u, v);
+            }
+          }
+        });
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
+  static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
     u -= 128;
@@ -138,17 +148,39 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
-      int pY = yRowStride * j;
-      int pUV = uvRowStride * (j >> 1);
-
-      for (int i = 0; i < width; i++) {
-        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+    convertYUV420ToARGB8888(
+        yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out,
+        WorkerPool.getDefault());
+  }
 
-        out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
-      }
-    }
+  /** As above, with rows split into stripes on {@code pool}. */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      WorkerPool pool) {
+    pool.forRows(
+        height,
+        (stripe, fromRow, toRow) -> {
+          int yp = fromRow * width;
+          for (int j = fromRow; j < toRow; j++) {
+            int pY = yRowStride * j;
+            int pUV = uvRowStride * (j >> 1);
+
+            for (int i = 0; i < width; i++) {
+              int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+              out[yp++] =
+                  YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+            }
+          }
+        });
   }
 
   /**
@@ -0,0 +1,183 @@
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Small fork-join pool for per-pixel kernels. A call to {@link #forRows} splits an image into
+ * horizontal stripes, runs them on persistent worker threads plus the calling thread, and returns
+ * once every stripe is done. Images shorter than {@code parallelism * minRowsPerStripe} rows run
+ * serially on the caller, where the hand-off would cost more than it saves.
+ *
+ * <p>Stripes cover disjoint row ranges, so kernels that write only their own rows produce the same
+ * output as a serial run. Dispatch does not allocate.
+ */
+public final class WorkerPool {
+  /** Processes rows {@code [fromRow, toRow)}; {@code stripe} is in {@code [0, parallelism)}. */
+  public interface RowKernel {
+    void run(int stripe, int fromRow, int toRow);
+  }
+
+  public static final int DEFAULT_MIN_ROWS_PER_STRIPE = 32;
+
+  private static WorkerPool defaultPool;
+
+  private final int parallelism;
+  private final int minRowsPerStripe;
+  private final Thread[] workers;
+
+  // Serializes concurrent callers; one job is in flight at a time.
+  private final Object callLock = new Object();
+  private final Object lock = new Object();
+
+  // Current job, guarded by lock.
+  private RowKernel kernel;
+  private int rows;
+  private int stripes;
+  private int nextStripe;
+  private int pendingStripes;
+  private long generation;
+  private Throwable failure;
+  private boolean shutdown;
+
+  /**
+   * @param parallelism total number of threads working on a job, including the caller.
+   * @param minRowsPerStripe stripes are never made shorter than this.
+   */
+  public WorkerPool(final int parallelism, final int minRowsPerStripe) {
+    this.parallelism = Math.max(1, parallelism);
+    this.minRowsPerStripe = Math.max(1, minRowsPerStripe);
+    workers = new Thread[this.parallelism - 1];
+    for (int i = 0; i < workers.length; ++i) {
+      workers[i] = new Thread(this::workerLoop, "WorkerPool-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /** Returns the process-wide pool, sized to the number of available cores on first use. */
+  public static synchronized WorkerPool getDefault() {
+    if (defaultPool == null) {
+      defaultPool =
+          new WorkerPool(Runtime.getRuntime().availableProcessors(), DEFAULT_MIN_ROWS_PER_STRIPE);
+    }
+    return defaultPool;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /** Runs {@code kernel} over {@code [0, rows)} and blocks until all stripes have finished. */
+  public void forRows(final int rows, final RowKernel kernel) {
+    final int stripes = Math.min(parallelism, rows / minRowsPerStripe);
+    if (stripes <= 1) {
+      kernel.run(0, 0, rows);
+      return;
+    }
+
+    synchronized (callLock) {
+      synchronized (lock) {
+        if (shutdown) {
+          throw new IllegalStateException("WorkerPool has been shut down");
+        }
+        this.kernel = kernel;
+        this.rows = rows;
+        this.stripes = stripes;
+        nextStripe = 0;
+        pendingStripes = stripes;
+        failure = null;
+        ++generation;
+        lock.notifyAll();
+      }
+
+      runStripes();
+
+      final Throwable error;
+      synchronized (lock) {
+        boolean interrupted = false;
+        while (pendingStripes > 0) {
+          try {
+            lock.wait();
+          } catch (final InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        this.kernel = null;
+        error = failure;
+        failure = null;
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error instanceof Error) {
+        throw (Error) error;
+      } else if (error != null) {
+        throw new RuntimeException(error);
+      }
+    }
+  }
+
+  /** Stops the worker threads. A job already in flight is finished by its caller. */
+  public void shutdown() {
+    synchronized (lock) {
+      shutdown = true;
+      lock.notifyAll();
+    }
+  }
+
+  private void workerLoop() {
+    long seen = 0;
+    while (true) {
+      synchronized (lock) {
+        while (!shutdown && generation == seen) {
+          try {
+            lock.wait();
+          } catch (final InterruptedException e) {
+            return;
+          }
+        }
+        if (shutdown) {
+          // The caller always works on its own job, so it still completes without us.
+          return;
+        }
+        seen = generation;
+      }
+      runStripes();
+    }
+  }
+
+  /** Claims and runs stripes of the current job until none are left. */
+  private void runStripes() {
+    while (true) {
+      final RowKernel k;
+      final int stripe;
+      final int from;
+      final int to;
+      synchronized (lock) {
+        if (kernel == null || nextStripe >= stripes) {
+          return;
+        }
+        k = kernel;
+        stripe = nextStripe++;
+        from = (int) ((long) stripe * rows / stripes);
+        to = (int) ((long) (stripe + 1) * rows / stripes);
+      }
+
+      Throwable error = null;
+      try {
+        k.run(stripe, from, to);
+      } catch (final Throwable t) {
+        error = t;
+      }
+
+      synchronized (lock) {
+        if (error != null && failure == null) {
+          failure = error;
+        }
+        if (--pendingStripes == 0) {
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * The planes of a YUV 4:2:0 camera frame, described by strides and offsets so that both the
+ * camera2 planar layout and the legacy NV21 preview buffer can be sampled the same way.
+ */
+public final class YuvFrame {
+  public byte[] y;
+  public byte[] u;
+  public byte[] v;
+  public int uOffset;
+  public int vOffset;
+  public int width;
+  public int height;
+  public int yRowStride;
+  public int uvRowStride;
+  public int uvPixelStride;
+
+  /** Describes a frame delivered as three separate planes (android.media.Image). */
+  public void setPlanar(
+      final byte[] y,
+      final byte[] u,
+      final byte[] v,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    this.y = y;
+    this.u = u;
+    this.v = v;
+    this.uOffset = 0;
+    this.vOffset = 0;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  /** Describes an NV21 buffer: full Y plane followed by interleaved V/U at half resolution. */
+  public void setNv21(final byte[] data, final int width, final int height) {
+    final int frameSize = width * height;
+    this.y = data;
+    this.u = data;
+    this.v = data;
+    this.uOffset = frameSize + 1;
+    this.vOffset = frameSize;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = width;
+    this.uvRowStride = width;
+    this.uvPixelStride = 2;
+  }
+
+  /** Converts the pixel at ({@code x}, {@code y}) to ARGB. */
+  public int argbAt(final int x, final int y) {
+    final int uv = (y >> 1) * uvRowStride + (x >> 1) * uvPixelStride;
+    return ImageUtils.YUV2RGB(
+        0xff & this.y[y * yRowStride + x], 0xff & u[uOffset + uv], 0xff & v[vOffset + uv]);
+  }
+
+  /**
+   * Writes a {@code size} x {@code size} thumbnail of the Y plane over the region from ({@code
+   * left}, {@code top}) to ({@code right}, {@code bottom}) to {@code out} from {@code offset}. Each
+   * pixel is the mean of at most {@code samples} x {@code samples} evenly spread samples of its
+   * cell, so the cost does not grow with the region.
+   */
+  public void lumaThumbnail(
+      final int left,
+      final int top,
+      final int right,
+      final int bottom,
+      final int size,
+      final int samples,
+      final byte[] out,
+      final int offset) {
+    for (int ty = 0; ty < size; ++ty) {
+      final int y0 = top + ty * (bottom - top) / size;
+      final int h = top + (ty + 1) * (bottom - top) / size - y0;
+      final int ny = Math.min(samples, h);
+      for (int tx = 0; tx < size; ++tx) {
+        final int x0 = left + tx * (right - left) / size;
+        final int w = left + (tx + 1) * (right - left) / size - x0;
+        final int nx = Math.min(samples, w);
+        int sum = 0;
+        for (int sy = 0; sy < ny; ++sy) {
+          final int row = (y0 + sy * h / ny) * yRowStride + x0;
+          for (int sx = 0; sx < nx; ++sx) {
+            sum += y[row + sx * w / nx] & 0xff;
+          }
+        }
+        final int n = nx * ny;
+        out[offset + ty * size + tx] = (byte) (n <= 0 ? 0 : sum / n);
+      }
+    }
+  }
+
+  /** Mean absolute difference of {@code length} unsigned bytes of two thumbnails. */
+  public static float meanAbsDifference(
+      final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+    int sum = 0;
+    for (int i = 0; i < length; ++i) {
+      sum += Math.abs((a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff));
+    }
+    return (float) sum / length;
+  }
+}
@@ -0,0 +1,14 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Where the interpreter runs the model.
+ */
+public enum Backend {
+    // The built-in kernels, without XNNPACK.
+    CPU,
+    // The CPU with the XNNPACK kernels, usually faster for float models.
+    XNNPACK,
+    // Falls back to the CPU below Android 9, where the NNAPI delegate is not supported.
+    NNAPI,
+    GPU
+}
@@ -0,0 +1,164 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.tensorflow.lite.TensorFlowLite;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.gpu.CompatibilityList;
+
+/**
+ * Picks the fastest {@link Backend} for a model on the device. The first time, every backend the
+ * device offers is tried on a synthetic input: the plain CPU, the CPU with XNNPACK, NNAPI from
+ * Android 9 and the GPU when the delegate supports it. A backend whose delegate fails to
+ * initialize or to run is skipped. The winner and its latency are stored and reused until the
+ * device build or the TensorFlow Lite runtime changes.
+ */
+public final class BackendSelector {
+
+    /**
+     * Runs the model on a backend.
+     */
+    interface Probe {
+        /**
+         * Switches to {@code backend}, throwing if it cannot be initialized.
+         */
+        void use(Backend backend);
+
+        /**
+         * Returns the median time of one of {@code runs} inferences, in nanoseconds.
+         */
+        long time(int runs);
+    }
+
+    /**
+     * The chosen backend and the latency it was measured at.
+     */
+    public static final class Result {
+        public final Backend backend;
+        public final long nanos;
+
+        Result(Backend backend, long nanos) {
+            this.backend = backend;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final Logger LOGGER = new Logger();
+
+    private static final String PREFS_NAME = "backend_selector";
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 10;
+    // Threads for the CPU backends while they are compared, so that they are not judged on one
+    // core; ThreadCountTuner picks the final count for the winner.
+    private static final int BENCHMARK_THREADS = 4;
+
+    private BackendSelector() {
+    }
+
+    /**
+     * Switches the detector to the stored backend for the model on this device, benchmarking and
+     * storing it first if there is none or if it no longer initializes. Benchmarking takes a few
+     * seconds, so call this off the UI thread, with no detection running on the detector.
+     */
+    public static Result select(Context context, YoloV5Classifier detector, String modelFilename) {
+        final SharedPreferences prefs =
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final String key = key(modelFilename);
+        final String stored = prefs.getString(key, null);
+        if (stored != null) {
+            try {
+                final Result result = new Result(Backend.valueOf(stored), prefs.getLong(key + "/nanos", 0));
+                detector.setBackend(result.backend);
+                LOGGER.i("Backend: stored %s, %.2f ms", result.backend, result.nanos / 1e6);
+                return result;
+            } catch (RuntimeException | LinkageError e) {
+                LOGGER.w("Stored backend %s failed, benchmarking again: %s", stored, e);
+            }
+        }
+
+        detector.setNumThreads(Math.min(BENCHMARK_THREADS, Runtime.getRuntime().availableProcessors()));
+        final YoloV5Classifier.Input input = detector.newInput();
+        final YoloV5Classifier.Output output = detector.newOutput();
+        final Result result = benchmark(new Probe() {
+            @Override
+            public void use(Backend backend) {
+                detector.setBackend(backend);
+            }
+
+            @Override
+            public long time(int runs) {
+                return detector.timeInference(input, output, runs);
+            }
+        }, availableBackends());
+        prefs.edit()
+                .putString(key, result.backend.name())
+                .putLong(key + "/nanos", result.nanos)
+                .apply();
+        return result;
+    }
+
+    /**
+     * The backends worth trying on this device. Always starts with the CPU ones, so that a host
+     * without accelerators still has a choice.
+     */
+    static List<Backend> availableBackends() {
+        final List<Backend> backends = new ArrayList<>();
+        backends.add(Backend.CPU);
+        backends.add(Backend.XNNPACK);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            backends.add(Backend.NNAPI);
+        }
+        try {
+            final CompatibilityList compatibilityList = new CompatibilityList();
+            if (compatibilityList.isDelegateSupportedOnThisDevice()) {
+                backends.add(Backend.GPU);
+            }
+            compatibilityList.close();
+        } catch (RuntimeException | LinkageError e) {
+            LOGGER.w("GPU delegate unavailable: %s", e);
+        }
+        return backends;
+    }
+
+    /**
+     * Times every backend in {@code candidates} that initializes and runs, and leaves the probe
+     * on the fastest one.
+     *
+     * @throws IllegalStateException if none of them works.
+     */
+    static Result benchmark(Probe probe, List<Backend> candidates) {
+        Backend best = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (final Backend backend : candidates) {
+            final long nanos;
+            try {
+                probe.use(backend);
+                probe.time(WARMUP_RUNS);
+                nanos = probe.time(TIMED_RUNS);
+            } catch (RuntimeException | LinkageError e) {
+                LOGGER.w("Backend %s failed: %s", backend, e);
+                continue;
+            }
+            LOGGER.i("Backend %s: %.2f ms", backend, nanos / 1e6);
+            if (nanos < bestNanos) {
+                best = backend;
+                bestNanos = nanos;
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException("No backend can run the model: " + candidates);
+        }
+        probe.use(best);
+        LOGGER.i("Backend: using %s, %.2f ms", best, bestNanos / 1e6);
+        return new Result(best, bestNanos);
+    }
+
+    private static String key(String modelFilename) {
+        return modelFilename + "/" + Build.FINGERPRINT + "/" + TensorFlowLite.runtimeVersion();
+    }
+}
@@ -0,0 +1,150 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Fixed-capacity store for decoded boxes, kept as parallel primitive arrays so that the
+ * per-frame decode and suppression passes do not allocate.
+ * <p>
+ * Coordinates are in model input pixels (left, top, right, bottom).
+ * <p>
+ * The number of boxes kept can be capped below the capacity with {@link #setLimit(int)}. Once the
+ * cap is reached the buffer turns into a min-heap on score, and each further box either replaces
+ * the lowest scoring one or is rejected, so only the top boxes reach suppression however cluttered
+ * the frame is. Box order is unspecified once the cap has been reached.
+ */
+public final class CandidateBuffer {
+
+    public final float[] left;
+    public final float[] top;
+    public final float[] right;
+    public final float[] bottom;
+    public final float[] score;
+    public final int[] detectedClass;
+
+    private int size;
+    private int limit;
+    // Slot indices ordered as a min-heap on score, valid while isHeap.
+    private final int[] heap;
+    private boolean isHeap;
+
+    public CandidateBuffer(final int capacity) {
+        left = new float[capacity];
+        top = new float[capacity];
+        right = new float[capacity];
+        bottom = new float[capacity];
+        score = new float[capacity];
+        detectedClass = new int[capacity];
+        heap = new int[capacity];
+        limit = capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return score.length;
+    }
+
+    public void clear() {
+        size = 0;
+        isHeap = false;
+    }
+
+    /**
+     * Keeps at most the {@code limit} highest scoring boxes, clamped to the capacity.
+     */
+    public void setLimit(int limit) {
+        this.limit = Math.max(1, Math.min(limit, score.length));
+        clear();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Score a new box has to exceed to be kept: negative infinity until the limit is reached, then
+     * the lowest score kept. Decoders use it to skip rows before building their boxes.
+     */
+    public float scoreToBeat() {
+        if (size < limit) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        if (!isHeap) {
+            buildHeap();
+        }
+        return score[heap[0]];
+    }
+
+    /**
+     * Adds a box and returns its index, or -1 when the buffer is at its limit and the box does not
+     * score above the lowest one kept. An accepted box may overwrite the index of an evicted one.
+     */
+    public int add(float l, float t, float r, float b, float s, int c) {
+        final int i;
+        if (size < limit) {
+            i = size++;
+        } else {
+            if (!isHeap) {
+                buildHeap();
+            }
+            if (!(s > score[heap[0]])) {
+                return -1;
+            }
+            i = heap[0];
+        }
+        left[i] = l;
+        top[i] = t;
+        right[i] = r;
+        bottom[i] = b;
+        score[i] = s;
+        detectedClass[i] = c;
+        if (isHeap) {
+            siftDown(0);
+        }
+        return i;
+    }
+
+    private void buildHeap() {
+        for (int k = 0; k < size; ++k) {
+            heap[k] = k;
+        }
+        for (int k = size / 2 - 1; k >= 0; --k) {
+            siftDown(k);
+        }
+        isHeap = true;
+    }
+
+    private void siftDown(int k) {
+        final int slot = heap[k];
+        final float s = score[slot];
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && score[heap[child + 1]] < score[heap[child]]) {
+                ++child;
+            }
+            if (!(score[heap[child]] < s)) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = slot;
+    }
+
+    /**
+     * Intersection over union of the boxes at index {@code a} and {@code b}.
+     */
+    public float iou(int a, int b) {
+        final float w = Math.min(right[a], right[b]) - Math.max(left[a], left[b]);
+        final float h = Math.min(bottom[a], bottom[b]) - Math.max(top[a], top[b]);
+        if (w < 0 || h < 0) return 0;
+        final float inter = w * h;
+        final float union = (right[a] - left[a]) * (bottom[a] - top[a])
+                + (right[b] - left[b]) * (bottom[b] - top[b]) - inter;
+        return inter / union;
+    }
+}
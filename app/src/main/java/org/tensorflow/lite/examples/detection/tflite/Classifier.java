@@ -26,6 +26,12 @@ import java.util.List;
 public interface Classifier {
     List<Recognition> recognizeImage(Bitmap bitmap);
 
+    /**
+     * Recognizes several images, in one invocation where the model allows, and returns the
+     * recognitions of each in order.
+     */
+    List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps);
+
     void enableStatLogging(final boolean debug);
 
     String getStatString();
@@ -0,0 +1,246 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/**
+ * Asynchronous front end of a {@link YoloV5Classifier} that runs the three stages of a detection
+ * in a pipeline.
+ * <p>
+ * Frames are preprocessed on the thread that submits them, while the frame is still valid, into
+ * one of two input buffers. An inference thread runs the interpreter into one of two output
+ * buffers, and a post-processing thread decodes, suppresses and delivers the results. So frame
+ * N+1 is being preprocessed while frame N is in the interpreter and frame N-1 is being decoded,
+ * and throughput is bounded by the slowest stage rather than by the sum of all three.
+ * <p>
+ * When both input buffers are in use the frame is dropped and {@code submit} returns false, the
+ * same policy the camera loop applies while a detection is running. Results are delivered in
+ * submission order on the post-processing thread.
+ * <p>
+ * The classifier's synchronous calls must not be used while a pipeline is open on it.
+ */
+public final class DetectionPipeline {
+
+    /**
+     * Receives the results of a submitted frame, on the post-processing thread.
+     */
+    public interface Callback {
+        void onResults(long frameId, List<Classifier.Recognition> results);
+
+        void onFailure(long frameId, Throwable error);
+    }
+
+    private static final Logger LOGGER = new Logger();
+
+    private static final int NUM_BUFFERS = 2;
+
+    /**
+     * A frame in flight.
+     */
+    private static final class Job {
+        YoloV5Classifier.Input input;
+        YoloV5Classifier.Output output;
+        long frameId;
+        Callback callback;
+        Throwable error;
+    }
+
+    // Marks the end of the stream for the stage threads.
+    private final Job endOfStream = new Job();
+
+    private final YoloV5Classifier detector;
+    private final BlockingQueue<YoloV5Classifier.Input> freeInputs =
+            new ArrayBlockingQueue<>(NUM_BUFFERS);
+    private final BlockingQueue<YoloV5Classifier.Output> freeOutputs =
+            new ArrayBlockingQueue<>(NUM_BUFFERS);
+    // A job holds an input or an output at every point of its life, so this many always suffice.
+    private final BlockingQueue<Job> freeJobs = new ArrayBlockingQueue<>(2 * NUM_BUFFERS);
+    private final BlockingQueue<Job> inferQueue = new ArrayBlockingQueue<>(2 * NUM_BUFFERS + 1);
+    private final BlockingQueue<Job> postQueue = new ArrayBlockingQueue<>(2 * NUM_BUFFERS + 1);
+
+    private final Thread inferThread;
+    private final Thread postThread;
+
+    // Guarded by this, which also serializes submissions.
+    private boolean closed;
+    private long submittedFrames;
+    private long droppedFrames;
+
+    public DetectionPipeline(YoloV5Classifier detector) {
+        this.detector = detector;
+        for (int i = 0; i < NUM_BUFFERS; ++i) {
+            freeInputs.add(detector.newInput());
+            freeOutputs.add(detector.newOutput());
+        }
+        for (int i = 0; i < 2 * NUM_BUFFERS; ++i) {
+            freeJobs.add(new Job());
+        }
+        inferThread = new Thread(this::inferLoop, "DetectionPipeline-infer");
+        postThread = new Thread(this::postLoop, "DetectionPipeline-post");
+        inferThread.setDaemon(true);
+        postThread.setDaemon(true);
+        inferThread.start();
+        postThread.start();
+    }
+
+    /**
+     * Preprocesses a camera frame on the calling thread and queues it for detection. The frame
+     * can be released as soon as this returns.
+     *
+     * @return false if the frame was dropped because the pipeline is full or closed.
+     */
+    public synchronized boolean submit(YuvFrame frame, Matrix cropToFrame, long frameId,
+                                       Callback callback) {
+        final YoloV5Classifier.Input input = acquireInput();
+        if (input == null) {
+            return false;
+        }
+        try {
+            detector.preprocess(frame, cropToFrame, input);
+        } catch (RuntimeException e) {
+            freeInputs.add(input);
+            throw e;
+        }
+        enqueue(input, frameId, callback);
+        return true;
+    }
+
+    /**
+     * Same as {@link #submit(YuvFrame, Matrix, long, Callback)} for a bitmap of the model input
+     * size.
+     */
+    public synchronized boolean submit(Bitmap bitmap, long frameId, Callback callback) {
+        final YoloV5Classifier.Input input = acquireInput();
+        if (input == null) {
+            return false;
+        }
+        try {
+            detector.preprocess(bitmap, input);
+        } catch (RuntimeException e) {
+            freeInputs.add(input);
+            throw e;
+        }
+        enqueue(input, frameId, callback);
+        return true;
+    }
+
+    public synchronized long getSubmittedFrames() {
+        return submittedFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Finishes the frames already submitted and stops the stage threads. The classifier is not
+     * closed.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Under the lock, so that no frame can be queued behind the end of the stream.
+            inferQueue.add(endOfStream);
+        }
+        boolean interrupted = false;
+        while (postThread.isAlive()) {
+            try {
+                postThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private YoloV5Classifier.Input acquireInput() {
+        final YoloV5Classifier.Input input = closed ? null : freeInputs.poll();
+        if (input == null) {
+            ++droppedFrames;
+        } else {
+            ++submittedFrames;
+        }
+        return input;
+    }
+
+    private void enqueue(YoloV5Classifier.Input input, long frameId, Callback callback) {
+        final Job job = freeJobs.remove();
+        job.input = input;
+        job.frameId = frameId;
+        job.callback = callback;
+        job.error = null;
+        inferQueue.add(job);
+    }
+
+    private void inferLoop() {
+        try {
+            while (true) {
+                final Job job = inferQueue.take();
+                if (job == endOfStream) {
+                    postQueue.put(endOfStream);
+                    return;
+                }
+                job.output = freeOutputs.take();
+                try {
+                    detector.infer(job.input, job.output);
+                } catch (Throwable t) {
+                    job.error = t;
+                }
+                freeInputs.put(job.input);
+                job.input = null;
+                postQueue.put(job);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.e(e, "Inference stage interrupted");
+        }
+    }
+
+    private void postLoop() {
+        try {
+            while (true) {
+                final Job job = postQueue.take();
+                if (job == endOfStream) {
+                    return;
+                }
+                List<Classifier.Recognition> results = null;
+                if (job.error == null) {
+                    try {
+                        results = detector.postprocess(job.output);
+                    } catch (Throwable t) {
+                        job.error = t;
+                    }
+                }
+                final YoloV5Classifier.Output output = job.output;
+                final Callback callback = job.callback;
+                final long frameId = job.frameId;
+                final Throwable error = job.error;
+                job.output = null;
+                job.callback = null;
+                job.error = null;
+                // The job goes back before its output, so that jobs never outnumber buffers.
+                freeJobs.put(job);
+                freeOutputs.put(output);
+
+                if (error != null) {
+                    callback.onFailure(frameId, error);
+                } else {
+                    callback.onResults(frameId, results);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.e(e, "Post-processing stage interrupted");
+        }
+    }
+}
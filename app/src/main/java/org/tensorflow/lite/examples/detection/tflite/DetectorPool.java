@@ -0,0 +1,205 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * A fixed set of {@link YoloV5Classifier} instances over one memory-mapped model, leased to
+ * frames so that several frames can be detected at once. Each instance has its own interpreter
+ * on the prototype's backend, tensors, post-processing buffers and worker threads for
+ * preprocessing and NMS; a leased instance is used by one thread until released.
+ * <p>
+ * Pool size and threads per interpreter trade latency for throughput: one interpreter with many
+ * threads finishes each frame soonest, several with fewer threads each finish more frames per
+ * second on devices with many cores.
+ * <p>
+ * A frame that arrives while every instance is leased is handled by the {@link OverflowPolicy}:
+ * dropped, or queued in arrival order behind at most {@code maxQueued} other frames and dropped
+ * beyond that.
+ */
+public final class DetectorPool {
+
+    public enum OverflowPolicy {
+        DROP,
+        QUEUE
+    }
+
+    private static final Logger LOGGER = new Logger();
+
+    private final YoloV5Classifier[] detectors;
+    private final ArrayDeque<YoloV5Classifier> idle;
+    // Threads waiting for a lease, in arrival order.
+    private final ArrayDeque<Thread> waiters;
+    private final OverflowPolicy policy;
+    private final int maxQueued;
+    private final int threadsPerInterpreter;
+    private boolean closed;
+
+    // Counters, guarded by this.
+    private long leases;
+    private long queuedLeases;
+    private long droppedFrames;
+    private int peakInUse;
+
+    /**
+     * Creates {@code size} instances from {@code prototype}, which stays owned by the caller.
+     */
+    public DetectorPool(YoloV5Classifier prototype, int size, int threadsPerInterpreter,
+                        OverflowPolicy policy, int maxQueued) {
+        this(newInstances(prototype, size, threadsPerInterpreter), threadsPerInterpreter, policy,
+                maxQueued);
+    }
+
+    /**
+     * Pools {@code detectors}, which become owned by the pool.
+     */
+    DetectorPool(YoloV5Classifier[] detectors, int threadsPerInterpreter, OverflowPolicy policy,
+                 int maxQueued) {
+        this.policy = policy;
+        this.maxQueued = maxQueued;
+        this.threadsPerInterpreter = threadsPerInterpreter;
+        this.detectors = detectors;
+        idle = new ArrayDeque<>(detectors.length);
+        waiters = new ArrayDeque<>(Math.max(1, maxQueued));
+        for (YoloV5Classifier detector : detectors) {
+            idle.add(detector);
+        }
+        LOGGER.i("Detector pool: %d interpreters x %d threads, %s", detectors.length,
+                threadsPerInterpreter, policy);
+    }
+
+    private static YoloV5Classifier[] newInstances(YoloV5Classifier prototype, int size,
+                                                   int threadsPerInterpreter) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+        final YoloV5Classifier[] detectors = new YoloV5Classifier[size];
+        for (int i = 0; i < size; ++i) {
+            detectors[i] = prototype.newInstance(threadsPerInterpreter);
+        }
+        return detectors;
+    }
+
+    public int getSize() {
+        return detectors.length;
+    }
+
+    public int getThreadsPerInterpreter() {
+        return threadsPerInterpreter;
+    }
+
+    /**
+     * Leases an idle instance. With {@link OverflowPolicy#QUEUE} this blocks until one is
+     * released, unless the queue is already full.
+     *
+     * @return the instance, to be handed back with {@link #release}, or null if the frame is
+     * dropped.
+     */
+    public synchronized YoloV5Classifier lease() {
+        if (!closed && waiters.isEmpty() && !idle.isEmpty()) {
+            return take(false);
+        }
+        if (closed || policy == OverflowPolicy.DROP || waiters.size() >= maxQueued) {
+            ++droppedFrames;
+            return null;
+        }
+
+        final Thread self = Thread.currentThread();
+        waiters.addLast(self);
+        try {
+            while (!closed && (waiters.peekFirst() != self || idle.isEmpty())) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiters.remove(self);
+            // The next waiter may now be at the head of the queue.
+            notifyAll();
+        }
+        if (closed || Thread.currentThread().isInterrupted() || idle.isEmpty()) {
+            ++droppedFrames;
+            return null;
+        }
+        return take(true);
+    }
+
+    /**
+     * Returns an instance obtained from {@link #lease}.
+     */
+    public synchronized void release(YoloV5Classifier detector) {
+        if (closed) {
+            detector.close();
+            return;
+        }
+        idle.addLast(detector);
+        notifyAll();
+    }
+
+    /**
+     * Leases an instance, runs {@link YoloV5Classifier#recognizeImage} and releases it.
+     *
+     * @return the detections, or null if the frame was dropped.
+     */
+    public List<Classifier.Recognition> recognizeImage(Bitmap bitmap) {
+        final YoloV5Classifier detector = lease();
+        if (detector == null) {
+            return null;
+        }
+        try {
+            return detector.recognizeImage(bitmap);
+        } finally {
+            release(detector);
+        }
+    }
+
+    public synchronized long getLeaseCount() {
+        return leases;
+    }
+
+    /**
+     * Leases that had to wait for an instance to be released.
+     */
+    public synchronized long getQueuedCount() {
+        return queuedLeases;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedFrames;
+    }
+
+    public synchronized int getPeakInUse() {
+        return peakInUse;
+    }
+
+    /**
+     * Closes the idle instances now and leased ones when they are released. Queued frames are
+     * dropped.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LOGGER.i("Detector pool closed: %d leases, %d queued, %d dropped, peak %d in use",
+                leases, queuedLeases, droppedFrames, peakInUse);
+        while (!idle.isEmpty()) {
+            idle.removeFirst().close();
+        }
+        notifyAll();
+    }
+
+    private YoloV5Classifier take(boolean queued) {
+        final YoloV5Classifier detector = idle.removeFirst();
+        ++leases;
+        if (queued) {
+            ++queuedLeases;
+        }
+        peakInUse = Math.max(peakInUse, detectors.length - idle.size());
+        return detector;
+    }
+}
@@ -0,0 +1,250 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.tensorflow.lite.examples.detection.env.WorkerPool;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/**
+ * Writes ARGB pixels into a model input buffer.
+ * <p>
+ * Normalization is precomputed into a 256-entry table per channel, so the per-pixel work is three
+ * table lookups. Values are staged one image row at a time and written with a single bulk put,
+ * and the float/quantized decision is made once per frame rather than once per pixel. Rows are
+ * split into stripes on a {@link WorkerPool}, each writing through its own buffer view.
+ */
+public final class InputPreprocessor {
+
+    private final float[][] floatTables;
+    private final byte[][] byteTables;
+
+    private WorkerPool workerPool = WorkerPool.getDefault();
+    private final WorkerPool.RowKernel kernel = this::processRows;
+
+    // Per-stripe views over the last destination buffer, each with its own position, and
+    // per-stripe row scratch.
+    private ByteBuffer viewOwner;
+    private FloatBuffer[] floatViews = new FloatBuffer[0];
+    private ByteBuffer[] byteViews = new ByteBuffer[0];
+    private float[][] floatRows = new float[0][];
+    private byte[][] byteRows = new byte[0][];
+
+    // Arguments of the frame being processed.
+    private int[] pixels;
+    private YuvFrame frame;
+    private float[] cropToFrame;
+    private int width;
+
+    private InputPreprocessor(float[][] floatTables, byte[][] byteTables) {
+        this.floatTables = floatTables;
+        this.byteTables = byteTables;
+    }
+
+    /**
+     * Preprocessor for float models: {@code (c - mean) / std}.
+     */
+    public static InputPreprocessor forFloat(float mean, float std) {
+        final float[][] tables = new float[3][256];
+        for (int ch = 0; ch < 3; ++ch) {
+            for (int c = 0; c < 256; ++c) {
+                tables[ch][c] = (c - mean) / std;
+            }
+        }
+        return new InputPreprocessor(tables, null);
+    }
+
+    /**
+     * Preprocessor for quantized models: {@code (byte) ((c - mean) / std / scale + zeroPoint)}.
+     */
+    public static InputPreprocessor forQuantized(float mean, float std, float scale, int zeroPoint) {
+        final byte[][] tables = new byte[3][256];
+        for (int ch = 0; ch < 3; ++ch) {
+            for (int c = 0; c < 256; ++c) {
+                tables[ch][c] = (byte) ((c - mean) / std / scale + zeroPoint);
+            }
+        }
+        return new InputPreprocessor(null, tables);
+    }
+
+    public boolean isQuantized() {
+        return byteTables != null;
+    }
+
+    /**
+     * Sets the pool that rows are spread over; a single-threaded pool keeps everything on the
+     * calling thread.
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        workerPool = pool;
+    }
+
+    /**
+     * Converts {@code width * height} ARGB pixels into {@code dst}, starting at its beginning.
+     *
+     * @return {@code dst}, rewound.
+     */
+    public ByteBuffer process(int[] pixels, int width, int height, ByteBuffer dst) {
+        dst.rewind();
+        prepare(dst, width * 3, workerPool.getParallelism());
+        this.pixels = pixels;
+        this.width = width;
+        try {
+            workerPool.forRows(height, kernel);
+        } finally {
+            this.pixels = null;
+        }
+        return dst;
+    }
+
+    /**
+     * Samples a YUV camera frame straight into {@code dst}, without going through an ARGB frame
+     * and a scaled bitmap. Each destination pixel centre is mapped into the frame with
+     * {@code cropToFrame} (the nine values of an affine {@code android.graphics.Matrix}, e.g. the
+     * inverse of the frame-to-crop transform) and the nearest source pixel is converted, which
+     * is what an unfiltered {@code Canvas.drawBitmap} with the forward transform produces.
+     *
+     * @return {@code dst}, rewound.
+     */
+    public ByteBuffer processYuv(YuvFrame frame, float[] cropToFrame, int width, int height,
+                                 ByteBuffer dst) {
+        dst.rewind();
+        prepare(dst, width * 3, workerPool.getParallelism());
+        this.frame = frame;
+        this.cropToFrame = cropToFrame;
+        this.width = width;
+        try {
+            workerPool.forRows(height, kernel);
+        } finally {
+            this.frame = null;
+            this.cropToFrame = null;
+        }
+        return dst;
+    }
+
+    private void prepare(ByteBuffer dst, int rowLength, int stripes) {
+        if (dst != viewOwner || floatViews.length < stripes) {
+            viewOwner = dst;
+            floatViews = new FloatBuffer[stripes];
+            byteViews = new ByteBuffer[stripes];
+            for (int s = 0; s < stripes; ++s) {
+                if (byteTables != null) {
+                    byteViews[s] = dst.duplicate();
+                } else {
+                    floatViews[s] = dst.asFloatBuffer();
+                }
+            }
+        }
+        if (floatRows.length < stripes
+                || (byteTables != null ? byteRows[0].length : floatRows[0].length) < rowLength) {
+            floatRows = new float[stripes][];
+            byteRows = new byte[stripes][];
+            for (int s = 0; s < stripes; ++s) {
+                if (byteTables != null) {
+                    byteRows[s] = new byte[rowLength];
+                } else {
+                    floatRows[s] = new float[rowLength];
+                }
+            }
+        }
+    }
+
+    private void processRows(int stripe, int fromRow, int toRow) {
+        if (frame != null) {
+            processYuvRows(stripe, fromRow, toRow);
+        } else if (byteTables != null) {
+            processQuantized(stripe, fromRow, toRow);
+        } else {
+            processFloat(stripe, fromRow, toRow);
+        }
+    }
+
+    private void processFloat(int stripe, int fromRow, int toRow) {
+        final int[] pixels = this.pixels;
+        final int rowLength = width * 3;
+        final float[] row = floatRows[stripe];
+        final float[] r = floatTables[0];
+        final float[] g = floatTables[1];
+        final float[] b = floatTables[2];
+        final FloatBuffer out = floatViews[stripe];
+
+        out.clear();
+        out.position(fromRow * rowLength);
+        for (int y = fromRow, p = fromRow * width; y < toRow; ++y) {
+            for (int k = 0; k < rowLength; ++p) {
+                final int pixelValue = pixels[p];
+                row[k++] = r[(pixelValue >> 16) & 0xFF];
+                row[k++] = g[(pixelValue >> 8) & 0xFF];
+                row[k++] = b[pixelValue & 0xFF];
+            }
+            out.put(row, 0, rowLength);
+        }
+    }
+
+    private void processQuantized(int stripe, int fromRow, int toRow) {
+        final int[] pixels = this.pixels;
+        final int rowLength = width * 3;
+        final byte[] row = byteRows[stripe];
+        final byte[] r = byteTables[0];
+        final byte[] g = byteTables[1];
+        final byte[] b = byteTables[2];
+        final ByteBuffer out = byteViews[stripe];
+
+        out.clear();
+        out.position(fromRow * rowLength);
+        for (int y = fromRow, p = fromRow * width; y < toRow; ++y) {
+            for (int k = 0; k < rowLength; ++p) {
+                final int pixelValue = pixels[p];
+                row[k++] = r[(pixelValue >> 16) & 0xFF];
+                row[k++] = g[(pixelValue >> 8) & 0xFF];
+                row[k++] = b[pixelValue & 0xFF];
+            }
+            out.put(row, 0, rowLength);
+        }
+    }
+
+    private void processYuvRows(int stripe, int fromRow, int toRow) {
+        final YuvFrame frame = this.frame;
+        final float[] m = cropToFrame;
+        final int maxX = frame.width - 1;
+        final int maxY = frame.height - 1;
+        final int rowLength = width * 3;
+        final boolean quantized = byteTables != null;
+        final float[] floatRow = quantized ? null : floatRows[stripe];
+        final byte[] byteRow = quantized ? byteRows[stripe] : null;
+        final FloatBuffer floatOut = quantized ? null : floatViews[stripe];
+        final ByteBuffer byteOut = quantized ? byteViews[stripe] : null;
+
+        if (quantized) {
+            byteOut.clear();
+            byteOut.position(fromRow * rowLength);
+        } else {
+            floatOut.clear();
+            floatOut.position(fromRow * rowLength);
+        }
+        for (int y = fromRow; y < toRow; ++y) {
+            // Source position of the centre of the first pixel in this row, and its step along x.
+            float fx = m[0] * 0.5f + m[1] * (y + 0.5f) + m[2];
+            float fy = m[3] * 0.5f + m[4] * (y + 0.5f) + m[5];
+            for (int x = 0, k = 0; x < width; ++x, fx += m[0], fy += m[3]) {
+                final int sx = fx <= 0 ? 0 : Math.min((int) fx, maxX);
+                final int sy = fy <= 0 ? 0 : Math.min((int) fy, maxY);
+                final int pixelValue = frame.argbAt(sx, sy);
+                if (quantized) {
+                    byteRow[k++] = byteTables[0][(pixelValue >> 16) & 0xFF];
+                    byteRow[k++] = byteTables[1][(pixelValue >> 8) & 0xFF];
+                    byteRow[k++] = byteTables[2][pixelValue & 0xFF];
+                } else {
+                    floatRow[k++] = floatTables[0][(pixelValue >> 16) & 0xFF];
+                    floatRow[k++] = floatTables[1][(pixelValue >> 8) & 0xFF];
+                    floatRow[k++] = floatTables[2][pixelValue & 0xFF];
+                }
+            }
+            if (quantized) {
+                byteOut.put(byteRow, 0, rowLength);
+            } else {
+                floatOut.put(floatRow, 0, rowLength);
+            }
+        }
+    }
+}
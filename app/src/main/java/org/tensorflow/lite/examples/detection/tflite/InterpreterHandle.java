@@ -0,0 +1,154 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.os.Build;
+
+import java.nio.MappedByteBuffer;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.gpu.GpuDelegate;
+import org.tensorflow.lite.nnapi.NnApiDelegate;
+
+/**
+ * An interpreter over a memory-mapped model together with the delegate it was built with, so
+ * that it can be rebuilt with another thread count or backend without reloading the model.
+ * <p>
+ * Not thread safe: the interpreter must not be running while it is rebuilt or closed.
+ */
+final class InterpreterHandle {
+
+    private static final Logger LOGGER = new Logger();
+
+    private final MappedByteBuffer model;
+    private Interpreter interpreter;
+    private GpuDelegate gpuDelegate;
+    private NnApiDelegate nnapiDelegate;
+    private int numThreads;
+    private Backend backend;
+    // Shape the input is resized to, or null for the shape in the model.
+    private int[] inputShape;
+
+    InterpreterHandle(MappedByteBuffer model, int numThreads, Backend backend) {
+        this(model, numThreads, backend, null);
+    }
+
+    InterpreterHandle(MappedByteBuffer model, int numThreads, Backend backend, int[] inputShape) {
+        this.model = model;
+        this.inputShape = inputShape;
+        rebuild(numThreads, backend);
+    }
+
+    Interpreter get() {
+        return interpreter;
+    }
+
+    MappedByteBuffer getModel() {
+        return model;
+    }
+
+    int getNumThreads() {
+        return numThreads;
+    }
+
+    Backend getBackend() {
+        return backend;
+    }
+
+    int[] getInputShape() {
+        return inputShape;
+    }
+
+    /**
+     * Rebuilds the interpreter with its input resized to {@code shape}. As with {@link #rebuild},
+     * if the model cannot run at that shape the exception is thrown and the old interpreter stays
+     * in use. Rebuilding rather than resizing in place lets delegates plan for the new shape.
+     */
+    void resizeInput(int[] shape) {
+        final int[] previous = inputShape;
+        inputShape = shape.clone();
+        try {
+            rebuild(numThreads, backend);
+        } catch (RuntimeException | LinkageError e) {
+            inputShape = previous;
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the interpreter with one running on {@code numThreads} threads on
+     * {@code backend}. The new interpreter is built before the old one is closed, so if the
+     * backend cannot run the model the exception is thrown and the old one stays in use.
+     */
+    void rebuild(int numThreads, Backend backend) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + numThreads);
+        }
+        if (backend == Backend.NNAPI && Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            LOGGER.w("NNAPI delegate needs Android 9, using the CPU");
+            backend = Backend.CPU;
+        }
+
+        final Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(numThreads);
+        options.setUseXNNPACK(backend == Backend.XNNPACK);
+        GpuDelegate newGpuDelegate = null;
+        NnApiDelegate newNnapiDelegate = null;
+        Interpreter newInterpreter = null;
+        try {
+            if (backend == Backend.GPU) {
+                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
+                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
+                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
+                newGpuDelegate = new GpuDelegate(gpu_options);
+                options.addDelegate(newGpuDelegate);
+            } else if (backend == Backend.NNAPI) {
+                newNnapiDelegate = new NnApiDelegate();
+                options.addDelegate(newNnapiDelegate);
+            }
+            newInterpreter = new Interpreter(model, options);
+            if (inputShape != null) {
+                newInterpreter.resizeInput(0, inputShape);
+                newInterpreter.allocateTensors();
+            }
+        } catch (RuntimeException | LinkageError e) {
+            if (newInterpreter != null) {
+                newInterpreter.close();
+            }
+            if (newGpuDelegate != null) {
+                newGpuDelegate.close();
+            }
+            if (newNnapiDelegate != null) {
+                newNnapiDelegate.close();
+            }
+            throw e;
+        }
+
+        closeInterpreter();
+        interpreter = newInterpreter;
+        gpuDelegate = newGpuDelegate;
+        nnapiDelegate = newNnapiDelegate;
+        this.numThreads = numThreads;
+        this.backend = backend;
+        LOGGER.i("Interpreter on %s with %d threads", backend, numThreads);
+    }
+
+    void close() {
+        closeInterpreter();
+    }
+
+    // The delegates must outlive the interpreter that uses them.
+    private void closeInterpreter() {
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
+        }
+        if (gpuDelegate != null) {
+            gpuDelegate.close();
+            gpuDelegate = null;
+        }
+        if (nnapiDelegate != null) {
+            nnapiDelegate.close();
+            nnapiDelegate = null;
+        }
+    }
+}
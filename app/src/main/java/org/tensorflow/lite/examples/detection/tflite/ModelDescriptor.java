@@ -0,0 +1,93 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * What a {@link YoloV5Classifier} needs to know about a model to size its buffers and decode its
+ * output. Built by {@link ModelRegistry}.
+ */
+public final class ModelDescriptor {
+
+    private final String modelFilename;
+    private final String labelFilename;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final boolean quantized;
+    private final int numBoxes;
+    private final int numClasses;
+    private final boolean normalizedBoxes;
+    private final NmsEngine.Mode nmsMode;
+
+    ModelDescriptor(String modelFilename, String labelFilename, int inputWidth, int inputHeight,
+                    boolean quantized, int numBoxes, int numClasses, boolean normalizedBoxes,
+                    NmsEngine.Mode nmsMode) {
+        this.modelFilename = modelFilename;
+        this.labelFilename = labelFilename;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.quantized = quantized;
+        this.numBoxes = numBoxes;
+        this.numClasses = numClasses;
+        this.normalizedBoxes = normalizedBoxes;
+        this.nmsMode = nmsMode;
+    }
+
+    public String getModelFilename() {
+        return modelFilename;
+    }
+
+    /**
+     * Asset with one label per line, in class order.
+     */
+    public String getLabelFilename() {
+        return labelFilename;
+    }
+
+    /**
+     * Width of the input image, in pixels.
+     */
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    /**
+     * Height of the input image, in pixels.
+     */
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    /**
+     * True if the model takes and returns 8-bit tensors.
+     */
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * Rows of the output tensor, one per anchor box of every detection head.
+     */
+    public int getNumBoxes() {
+        return numBoxes;
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * True if the boxes are output relative to the input size, false if in input pixels.
+     */
+    public boolean hasNormalizedBoxes() {
+        return normalizedBoxes;
+    }
+
+    public NmsEngine.Mode getNmsMode() {
+        return nmsMode;
+    }
+
+    @Override
+    public String toString() {
+        return modelFilename + ": " + inputWidth + "x" + inputHeight + (quantized ? " int8" : " float")
+                + ", " + numBoxes + " boxes x " + numClasses + " classes, labels " + labelFilename
+                + ", " + (normalizedBoxes ? "normalized" : "pixel") + " boxes, " + nmsMode + " NMS";
+    }
+}
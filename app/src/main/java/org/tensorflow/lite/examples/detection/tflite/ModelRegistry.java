@@ -0,0 +1,148 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.Utils;
+
+/**
+ * Describes the YOLOv5 models in the assets, so that a new model can be deployed by dropping it
+ * in without a code change.
+ * <p>
+ * The input size, whether the model is quantized and the shape of the output head are read from
+ * the model's tensors: one {@code [1, height, width, 3]} input and one {@code [1, boxes, 5 + classes]}
+ * output. What the tensors cannot tell comes from an optional JSON sidecar next to the model,
+ * {@code yolov5s.json} for {@code yolov5s.tflite}, for example:
+ * <pre>
+ * {
+ *   "labels": "customclasses.txt",
+ *   "nmsMode": "GREEDY",
+ *   "normalizedBoxes": true
+ * }
+ * </pre>
+ * Every field is optional and defaults to the values above. Descriptors are cached for the life
+ * of the process.
+ */
+public final class ModelRegistry {
+
+    private static final Logger LOGGER = new Logger();
+
+    public static final String DEFAULT_LABELS = "customclasses.txt";
+    private static final String MODEL_EXTENSION = ".tflite";
+    private static final String SIDECAR_EXTENSION = ".json";
+
+    /**
+     * Fields of the JSON sidecar; absent ones keep their defaults.
+     */
+    private static final class Sidecar {
+        String labels = DEFAULT_LABELS;
+        NmsEngine.Mode nmsMode = NmsEngine.Mode.GREEDY;
+        boolean normalizedBoxes = true;
+    }
+
+    private static final Map<String, ModelDescriptor> descriptors = new HashMap<>();
+
+    private ModelRegistry() {
+    }
+
+    /**
+     * Returns the descriptor of a model asset, reading the model and its sidecar the first time.
+     *
+     * @throws IllegalArgumentException if the model does not have the YOLOv5 layout.
+     */
+    public static synchronized ModelDescriptor describe(AssetManager assetManager, String modelFilename)
+            throws IOException {
+        ModelDescriptor descriptor = descriptors.get(modelFilename);
+        if (descriptor != null) {
+            return descriptor;
+        }
+        final Sidecar sidecar = readSidecar(assetManager, modelFilename);
+
+        final int[] inputShape;
+        final DataType inputType;
+        final int[] outputShape;
+        final DataType outputType;
+        final Interpreter interpreter =
+                new Interpreter(Utils.loadModelFile(assetManager, modelFilename), new Interpreter.Options());
+        try {
+            if (interpreter.getInputTensorCount() != 1 || interpreter.getOutputTensorCount() != 1) {
+                throw new IllegalArgumentException(modelFilename + " has "
+                        + interpreter.getInputTensorCount() + " inputs and "
+                        + interpreter.getOutputTensorCount() + " outputs, expected one of each");
+            }
+            final Tensor input = interpreter.getInputTensor(0);
+            inputShape = input.shape();
+            inputType = input.dataType();
+            outputShape = interpreter.getOutputTensor(0).shape();
+            outputType = interpreter.getOutputTensor(0).dataType();
+        } finally {
+            interpreter.close();
+        }
+
+        if (inputShape.length != 4 || inputShape[0] != 1 || inputShape[3] != 3) {
+            throw new IllegalArgumentException(modelFilename + " input shape "
+                    + Arrays.toString(inputShape) + ", expected [1, height, width, 3]");
+        }
+        if (outputShape.length != 3 || outputShape[0] != 1 || outputShape[2] <= 5) {
+            throw new IllegalArgumentException(modelFilename + " output shape "
+                    + Arrays.toString(outputShape) + ", expected [1, boxes, 5 + classes]");
+        }
+
+        final boolean quantized = inputType != DataType.FLOAT32;
+        if (quantized != (outputType != DataType.FLOAT32)) {
+            throw new IllegalArgumentException(modelFilename + " takes " + inputType
+                    + " and returns " + outputType + ", expected both float or both 8-bit");
+        }
+
+        descriptor = new ModelDescriptor(modelFilename, sidecar.labels, inputShape[2],
+                inputShape[1], quantized, outputShape[1], outputShape[2] - 5,
+                sidecar.normalizedBoxes, sidecar.nmsMode);
+        LOGGER.i("Model %s", descriptor);
+        descriptors.put(modelFilename, descriptor);
+        return descriptor;
+    }
+
+    private static Sidecar readSidecar(AssetManager assetManager, String modelFilename)
+            throws IOException {
+        final String base = modelFilename.endsWith(MODEL_EXTENSION)
+                ? modelFilename.substring(0, modelFilename.length() - MODEL_EXTENSION.length())
+                : modelFilename;
+        final String sidecarFilename = base + SIDECAR_EXTENSION;
+        final Reader reader;
+        try {
+            reader = new InputStreamReader(assetManager.open(sidecarFilename), Charset.forName("UTF-8"));
+        } catch (FileNotFoundException e) {
+            return new Sidecar();
+        }
+        try {
+            final Sidecar sidecar = new Gson().fromJson(reader, Sidecar.class);
+            if (sidecar == null) {
+                return new Sidecar();
+            }
+            // Gson reads an unknown enum constant as null.
+            if (sidecar.labels == null || sidecar.nmsMode == null) {
+                throw new IOException("Null or unknown labels or nmsMode in " + sidecarFilename);
+            }
+            return sidecar;
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed " + sidecarFilename, e);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+
+import org.tensorflow.lite.examples.detection.env.WorkerPool;
+
+/**
+ * Greedy non maximum suppression over a {@link CandidateBuffer}, shared by the YOLO classifiers.
+ * <p>
+ * Candidates are sorted by score once, bucketed by class in a single stable pass, and each bucket
+ * is suppressed greedily with a bitset. Scratch space is allocated up front for the buffer
+ * capacity (the grid's entry list grows to its high-water mark), so steady-state calls do not
+ * allocate.
+ * <p>
+ * Large buckets are suppressed through a uniform spatial grid instead: each candidate is tested
+ * only against kept boxes in the cells it covers, so the cost follows local box density rather
+ * than growing with the square of the bucket size. Both paths keep exactly the same boxes; the
+ * grid is used once a bucket reaches {@link #setGridThreshold(int) the grid threshold}.
+ * <p>
+ * By default boxes only suppress boxes of the same class. Classes can instead be grouped, for
+ * example the speed limit signs, whose look-alike classes otherwise produce stacked boxes on one
+ * sign, or the suppression can be made class agnostic altogether.
+ * <p>
+ * Besides hard greedy suppression the engine can decay scores instead, see {@link Mode}.
+ */
+public final class NmsEngine {
+
+    /**
+     * How overlapping boxes are suppressed.
+     */
+    public enum Mode {
+        /**
+         * Greedy: a box is dropped when it overlaps a kept, higher scoring box by at least the IoU
+         * threshold.
+         */
+        GREEDY,
+        /**
+         * Matrix NMS (SOLOv2): each score is decayed by {@code exp(-sigma * iou^2)} of its worst
+         * overlap with a higher scoring box, compensated by how much that box was itself
+         * overlapped. All decays come from one pairwise IoU matrix, one row per box against the
+         * higher scoring ones, computed in parallel stripes of rows and then decayed in a second
+         * striped pass, so nothing depends on the order boxes are visited in.
+         */
+        MATRIX,
+        /**
+         * Soft NMS: greedy selection that decays the scores of the boxes overlapping each pick by
+         * {@code exp(-sigma * iou^2)} instead of dropping them. Sequential.
+         */
+        SOFT
+    }
+
+    /**
+     * Boxes per bucket that the score-decaying modes look at; lower scoring ones are dropped.
+     */
+    public static final int DEFAULT_DECAY_TOP_K = 256;
+    public static final float DEFAULT_DECAY_SIGMA = 2.0f;
+    /**
+     * Decayed scores at or below this are dropped.
+     */
+    public static final float DEFAULT_DECAYED_SCORE_THRESHOLD = 0.05f;
+
+    /**
+     * Bucket size from which the grid path is used, see {@code NmsEngineBenchmark}.
+     */
+    public static final int DEFAULT_GRID_THRESHOLD = 256;
+
+    // Cells per side of the grid laid over the extent of the candidates.
+    private static final int GRID_SIZE = 16;
+
+    private final int numClasses;
+
+    // Sort keys: score bits in the high word, inverted index in the low word.
+    private final long[] keys;
+    // Candidate indices, sorted by score and then bucketed by group.
+    private final int[] order;
+    private final int[] groupStart;
+    private final long[] suppressed;
+
+    private int[] groupOfClass;
+    private int numGroups;
+    private int gridThreshold = DEFAULT_GRID_THRESHOLD;
+
+    // Grid of kept boxes: per-cell singly linked lists of entries. A cell whose stamp differs from
+    // gridStamp is empty, which clears the grid between buckets without touching every cell.
+    private final int[] cellHead = new int[GRID_SIZE * GRID_SIZE];
+    private final int[] cellStamp = new int[GRID_SIZE * GRID_SIZE];
+    private int gridStamp;
+    private int[] entryBox = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount;
+    // Last query that tested each candidate, so a box spanning several cells is tested once.
+    private final int[] visitStamp;
+    private int queryStamp;
+
+    private float gridMinX;
+    private float gridMinY;
+    private float gridScaleX;
+    private float gridScaleY;
+
+    private Mode mode = Mode.GREEDY;
+    private int decayTopK = DEFAULT_DECAY_TOP_K;
+    private float decaySigma = DEFAULT_DECAY_SIGMA;
+    private float decayedScoreThreshold = DEFAULT_DECAYED_SCORE_THRESHOLD;
+    private WorkerPool workerPool = WorkerPool.getDefault();
+    private final WorkerPool.RowKernel iouKernel = this::computeIouRows;
+    private final WorkerPool.RowKernel decayKernel = this::computeDecayRows;
+
+    // Score-decay scratch, allocated on first use: row j of iouMatrix holds the IoUs of the j-th
+    // box of a bucket with the higher scoring boxes before it.
+    private float[] iouMatrix;
+    private float[] compensateSq;
+    private float[] decay;
+
+    // Bucket whose IoU matrix is being computed.
+    private CandidateBuffer decayCandidates;
+    private int decayStart;
+
+    public NmsEngine(int capacity, int numClasses) {
+        this.numClasses = numClasses;
+        keys = new long[capacity];
+        order = new int[capacity];
+        groupStart = new int[numClasses + 2];
+        suppressed = new long[(capacity + 63) >>> 6];
+        visitStamp = new int[capacity];
+        setClassAgnostic(false);
+    }
+
+    public int capacity() {
+        return order.length;
+    }
+
+    /**
+     * Returns a new engine of the same capacity and configuration.
+     */
+    public NmsEngine copy() {
+        return copy(capacity());
+    }
+
+    /**
+     * Returns a new engine of the same configuration for up to {@code capacity} candidates.
+     */
+    public NmsEngine copy(int capacity) {
+        final NmsEngine e = new NmsEngine(capacity, numClasses);
+        e.setClassGroups(groupOfClass);
+        e.setGridThreshold(gridThreshold);
+        e.setMode(mode);
+        e.setDecayParameters(decayTopK, decaySigma, decayedScoreThreshold);
+        e.setWorkerPool(workerPool);
+        return e;
+    }
+
+    /**
+     * Buckets with at least this many candidates go through the spatial grid; 0 always uses the
+     * grid and {@link Integer#MAX_VALUE} never does.
+     */
+    public void setGridThreshold(int gridThreshold) {
+        this.gridThreshold = gridThreshold;
+    }
+
+    public int getGridThreshold() {
+        return gridThreshold;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Parameters of the score-decaying modes; they leave the IoU threshold unused.
+     *
+     * @param topK           boxes per bucket considered, highest scores first.
+     * @param sigma          Gaussian decay strength.
+     * @param scoreThreshold decayed scores at or below this are dropped.
+     */
+    public void setDecayParameters(int topK, float sigma, float scoreThreshold) {
+        if (topK != decayTopK) {
+            iouMatrix = null;
+        }
+        decayTopK = topK;
+        decaySigma = sigma;
+        decayedScoreThreshold = scoreThreshold;
+    }
+
+    /**
+     * Sets the pool that the Matrix NMS IoU matrix is computed on.
+     */
+    public void setWorkerPool(WorkerPool pool) {
+        workerPool = pool;
+    }
+
+    /**
+     * If true, any box suppresses any other box regardless of class.
+     */
+    public void setClassAgnostic(boolean classAgnostic) {
+        final int[] groups = new int[numClasses];
+        if (!classAgnostic) {
+            for (int c = 0; c < numClasses; ++c) {
+                groups[c] = c;
+            }
+        }
+        setClassGroups(groups);
+    }
+
+    /**
+     * Boxes only suppress boxes whose class maps to the same group. Groups must be numbered
+     * {@code 0..n-1}; classes out of range of the array form their own trailing group.
+     */
+    public void setClassGroups(int[] groupOfClass) {
+        int max = -1;
+        for (int g : groupOfClass) {
+            max = Math.max(max, g);
+        }
+        if (max >= numClasses) {
+            throw new IllegalArgumentException("Group id " + max + " >= " + numClasses);
+        }
+        this.groupOfClass = groupOfClass.clone();
+        this.numGroups = max + 2;
+    }
+
+    /**
+     * Runs suppression and writes the indices of the kept candidates into {@code keep}, grouped
+     * in group order. Within a group, greedy and Matrix NMS keep boxes in order of their original
+     * score and Soft NMS in order of selection. The score-decaying modes write the decayed scores
+     * of kept boxes back to {@code candidates.score}.
+     *
+     * @return the number of kept candidates.
+     */
+    public int run(CandidateBuffer candidates, float iouThreshold, int[] keep) {
+        final int n = candidates.size();
+        if (n == 0) {
+            return 0;
+        }
+
+        // 1.sort once by descending score
+        for (int i = 0; i < n; ++i) {
+            final int bits = Float.floatToIntBits(Math.max(0f, candidates.score[i]));
+            keys[i] = ((long) bits << 32) | (~i & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys, 0, n);
+
+        // 2.stable counting sort into per-group buckets
+        Arrays.fill(groupStart, 0, numGroups + 1, 0);
+        for (int i = 0; i < n; ++i) {
+            groupStart[groupOf(candidates.detectedClass[i]) + 1]++;
+        }
+        for (int g = 0; g < numGroups; ++g) {
+            groupStart[g + 1] += groupStart[g];
+        }
+        for (int s = n - 1; s >= 0; --s) {
+            final int i = ~(int) keys[s];
+            final int g = groupOf(candidates.detectedClass[i]);
+            order[groupStart[g]++] = i;
+        }
+        // groupStart[g] now holds the end of bucket g; shift back to starts.
+        for (int g = numGroups; g > 0; --g) {
+            groupStart[g] = groupStart[g - 1];
+        }
+        groupStart[0] = 0;
+
+        // 3.suppression inside each bucket
+        int kept = 0;
+        boolean gridReady = false;
+        for (int g = 0; g < numGroups; ++g) {
+            final int start = groupStart[g];
+            final int end = groupStart[g + 1];
+            if (mode == Mode.MATRIX) {
+                kept = decayMatrix(candidates, start, end, keep, kept);
+            } else if (mode == Mode.SOFT) {
+                kept = decaySoft(candidates, start, end, keep, kept);
+            } else if (end - start < Math.max(gridThreshold, 2)) {
+                kept = suppressSorted(candidates, iouThreshold, start, end, keep, kept);
+            } else {
+                if (!gridReady) {
+                    setUpGrid(candidates);
+                    gridReady = true;
+                }
+                kept = suppressGrid(candidates, iouThreshold, start, end, keep, kept);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Every kept box is tested against all lower scoring boxes of its bucket.
+     */
+    private int suppressSorted(CandidateBuffer candidates, float iouThreshold,
+                               int start, int end, int[] keep, int kept) {
+        Arrays.fill(suppressed, start >>> 6, ((end - 1) >>> 6) + 1, 0L);
+        for (int a = start; a < end; ++a) {
+            if ((suppressed[a >>> 6] & (1L << a)) != 0) {
+                continue;
+            }
+            final int max = order[a];
+            keep[kept++] = max;
+            for (int b = a + 1; b < end; ++b) {
+                if ((suppressed[b >>> 6] & (1L << b)) == 0
+                        && !(candidates.iou(max, order[b]) < iouThreshold)) {
+                    suppressed[b >>> 6] |= 1L << b;
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Each box, in score order, is tested against the boxes already kept in the cells it covers
+     * and kept itself if none of them overlaps it enough. Boxes that overlap at all share a cell,
+     * so this keeps the same boxes as {@link #suppressSorted}.
+     */
+    private int suppressGrid(CandidateBuffer candidates, float iouThreshold,
+                             int start, int end, int[] keep, int kept) {
+        if (++gridStamp == Integer.MAX_VALUE) {
+            Arrays.fill(cellStamp, 0);
+            gridStamp = 1;
+        }
+        entryCount = 0;
+
+        for (int a = start; a < end; ++a) {
+            final int box = order[a];
+            final int x0 = cellX(candidates.left[box]);
+            final int x1 = cellX(candidates.right[box]);
+            final int y0 = cellY(candidates.top[box]);
+            final int y1 = cellY(candidates.bottom[box]);
+
+            if (++queryStamp == Integer.MAX_VALUE) {
+                Arrays.fill(visitStamp, 0);
+                queryStamp = 1;
+            }
+            boolean isSuppressed = false;
+            search:
+            for (int cy = y0; cy <= y1; ++cy) {
+                for (int cx = x0; cx <= x1; ++cx) {
+                    final int cell = cy * GRID_SIZE + cx;
+                    if (cellStamp[cell] != gridStamp) {
+                        continue;
+                    }
+                    for (int e = cellHead[cell]; e >= 0; e = entryNext[e]) {
+                        final int other = entryBox[e];
+                        if (visitStamp[other] == queryStamp) {
+                            continue;
+                        }
+                        visitStamp[other] = queryStamp;
+                        if (!(candidates.iou(other, box) < iouThreshold)) {
+                            isSuppressed = true;
+                            break search;
+                        }
+                    }
+                }
+            }
+            if (isSuppressed) {
+                continue;
+            }
+
+            keep[kept++] = box;
+            for (int cy = y0; cy <= y1; ++cy) {
+                for (int cx = x0; cx <= x1; ++cx) {
+                    final int cell = cy * GRID_SIZE + cx;
+                    if (cellStamp[cell] != gridStamp) {
+                        cellStamp[cell] = gridStamp;
+                        cellHead[cell] = -1;
+                    }
+                    if (entryCount == entryBox.length) {
+                        entryBox = Arrays.copyOf(entryBox, entryCount * 2);
+                        entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+                    }
+                    entryBox[entryCount] = box;
+                    entryNext[entryCount] = cellHead[cell];
+                    cellHead[cell] = entryCount++;
+                }
+            }
+        }
+        return kept;
+    }
+
+    private void ensureDecayScratch() {
+        if (iouMatrix == null) {
+            iouMatrix = new float[decayTopK * decayTopK];
+            compensateSq = new float[decayTopK];
+            decay = new float[decayTopK];
+        }
+    }
+
+    private int decayMatrix(CandidateBuffer candidates, int start, int end, int[] keep, int kept) {
+        final int count = Math.min(end - start, decayTopK);
+        if (count == 0) {
+            return kept;
+        }
+        ensureDecayScratch();
+        decayCandidates = candidates;
+        decayStart = start;
+        try {
+            // Every row's decay needs the compensation of all earlier rows, hence the two passes.
+            workerPool.forRows(count, iouKernel);
+            workerPool.forRows(count, decayKernel);
+        } finally {
+            decayCandidates = null;
+        }
+        for (int j = 0; j < count; ++j) {
+            final int box = order[start + j];
+            final float score = candidates.score[box] * decay[j];
+            if (score > decayedScoreThreshold) {
+                candidates.score[box] = score;
+                keep[kept++] = box;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Fills rows {@code [from, to)} of the IoU matrix and the squared compensation IoU of each,
+     * i.e. its largest overlap with a higher scoring box.
+     */
+    private void computeIouRows(int stripe, int from, int to) {
+        final CandidateBuffer candidates = decayCandidates;
+        final float[] m = iouMatrix;
+        for (int j = from; j < to; ++j) {
+            final int box = order[decayStart + j];
+            final int row = j * decayTopK;
+            float max = 0;
+            for (int i = 0; i < j; ++i) {
+                float iou = candidates.iou(order[decayStart + i], box);
+                if (!(iou >= 0)) {
+                    // Degenerate boxes; greedy suppression treats these as full overlap.
+                    iou = 1;
+                }
+                m[row + i] = iou;
+                max = Math.max(max, iou);
+            }
+            compensateSq[j] = max * max;
+        }
+    }
+
+    /**
+     * min over i of {@code exp(-sigma * (iou_ij^2 - comp_i^2))} is one exp of the largest
+     * exponent, so the inner loop is plain multiply, subtract and max.
+     */
+    private void computeDecayRows(int stripe, int from, int to) {
+        final float[] m = iouMatrix;
+        final float[] c = compensateSq;
+        for (int j = from; j < to; ++j) {
+            final int row = j * decayTopK;
+            float worst = 0;
+            for (int i = 0; i < j; ++i) {
+                worst = Math.max(worst, m[row + i] * m[row + i] - c[i]);
+            }
+            decay[j] = (float) Math.exp(-decaySigma * worst);
+        }
+    }
+
+    private int decaySoft(CandidateBuffer candidates, int start, int end, int[] keep, int kept) {
+        final int count = Math.min(end - start, decayTopK);
+        if (count == 0) {
+            return kept;
+        }
+        ensureDecayScratch();
+        final float[] scores = decay;
+        for (int j = 0; j < count; ++j) {
+            scores[j] = candidates.score[order[start + j]];
+        }
+        while (true) {
+            int best = -1;
+            for (int j = 0; j < count; ++j) {
+                if (scores[j] > decayedScoreThreshold && (best < 0 || scores[j] > scores[best])) {
+                    best = j;
+                }
+            }
+            if (best < 0) {
+                return kept;
+            }
+            final int max = order[start + best];
+            candidates.score[max] = scores[best];
+            keep[kept++] = max;
+            scores[best] = -1;
+            for (int j = 0; j < count; ++j) {
+                if (scores[j] > decayedScoreThreshold) {
+                    final float iou = candidates.iou(max, order[start + j]);
+                    scores[j] = iou >= 0 ? scores[j] * (float) Math.exp(-decaySigma * iou * iou) : -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fits the grid to the extent of the current candidates.
+     */
+    private void setUpGrid(CandidateBuffer candidates) {
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0, n = candidates.size(); i < n; ++i) {
+            minX = Math.min(minX, candidates.left[i]);
+            minY = Math.min(minY, candidates.top[i]);
+            maxX = Math.max(maxX, candidates.right[i]);
+            maxY = Math.max(maxY, candidates.bottom[i]);
+        }
+        gridMinX = minX;
+        gridMinY = minY;
+        gridScaleX = maxX > minX ? GRID_SIZE / (maxX - minX) : 0;
+        gridScaleY = maxY > minY ? GRID_SIZE / (maxY - minY) : 0;
+    }
+
+    private int cellX(float x) {
+        return Math.max(0, Math.min(GRID_SIZE - 1, (int) ((x - gridMinX) * gridScaleX)));
+    }
+
+    private int cellY(float y) {
+        return Math.max(0, Math.min(GRID_SIZE - 1, (int) ((y - gridMinY) * gridScaleY)));
+    }
+
+    private int groupOf(int detectedClass) {
+        return detectedClass >= 0 && detectedClass < groupOfClass.length
+                ? groupOfClass[detectedClass]
+                : numGroups - 1;
+    }
+}
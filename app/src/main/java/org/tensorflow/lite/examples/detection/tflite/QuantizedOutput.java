@@ -0,0 +1,63 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Tensor;
+
+import static org.tensorflow.lite.examples.detection.env.Utils.expit;
+
+/**
+ * Integer-domain view of an 8-bit quantized output tensor.
+ * <p>
+ * Raw bytes are mapped to an unsigned key in [0, 255] that sorts the same way as the dequantized
+ * value, for both uint8 and int8 tensors. Thresholds are converted to keys once, so rows can be
+ * rejected and class scores compared without any float arithmetic; the few surviving values are
+ * dequantized through a 256-entry lookup table.
+ */
+final class QuantizedOutput {
+
+    private final float[] lut = new float[256];
+    private final int keyFlip;
+
+    /**
+     * @param sigmoid if true the table holds {@code expit(dequantized)}, for heads that emit logits.
+     */
+    QuantizedOutput(float scale, int zeroPoint, boolean signed, boolean sigmoid) {
+        keyFlip = signed ? 0x80 : 0;
+        for (int key = 0; key < 256; ++key) {
+            final int q = signed ? key - 128 : key;
+            final float v = scale * (q - zeroPoint);
+            lut[key] = sigmoid ? expit(v) : v;
+        }
+    }
+
+    static QuantizedOutput of(Tensor tensor, boolean sigmoid) {
+        return new QuantizedOutput(
+                tensor.quantizationParams().getScale(),
+                tensor.quantizationParams().getZeroPoint(),
+                tensor.dataType() == DataType.INT8,
+                sigmoid);
+    }
+
+    /**
+     * Order-preserving unsigned key of a raw output byte.
+     */
+    int key(byte raw) {
+        return (raw & 0xFF) ^ keyFlip;
+    }
+
+    float value(int key) {
+        return lut[key];
+    }
+
+    /**
+     * Returns the largest key whose value is not above {@code threshold}, or -1 if every key is
+     * above it, so that {@code key(b) > rawThreshold(t)} holds exactly when {@code value > t}.
+     */
+    int rawThreshold(float threshold) {
+        int raw = -1;
+        while (raw < 255 && !(lut[raw + 1] > threshold)) {
+            ++raw;
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,123 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Picks the model input size from the measured end-to-end latency of recent frames. It keeps the
+ * 95th percentile over a window of frames, steps down to the next smaller size when that is over
+ * the budget, and steps up when the larger size, scaled by its pixel count, would still leave
+ * headroom. The window is cleared after every switch, so the new size is judged on its own
+ * frames and the size cannot flip on every frame.
+ * <p>
+ * Thread-safe; the detector is resized by the caller, see {@link YoloV5Classifier#setInputSize}.
+ */
+public final class ResolutionController {
+
+    public static final int[] DEFAULT_SIZES = {256, 320, 416, 512};
+    public static final int DEFAULT_WINDOW = 30;
+
+    // Fraction of the budget the predicted latency of the larger size must stay under.
+    private static final float STEP_UP_HEADROOM = 0.8f;
+    private static final float PERCENTILE = 0.95f;
+
+    private int[] sizes;
+    private int index;
+    private final long budgetNanos;
+    private final long[] latencies;
+    private final long[] sorted;
+    private int count;
+    private int next;
+    private long p95Nanos;
+
+    /**
+     * @param sizes       Input sizes to choose from.
+     * @param initialSize Size to start at; added to {@code sizes} if missing.
+     * @param budgetMs    End-to-end latency the 95th percentile should stay under.
+     * @param window      Frames the percentile is taken over.
+     */
+    public ResolutionController(int[] sizes, int initialSize, long budgetMs, int window) {
+        if (budgetMs <= 0 || window <= 0) {
+            throw new IllegalArgumentException("Budget and window must be positive");
+        }
+        int[] ladder = sizes.clone();
+        Arrays.sort(ladder);
+        if (Arrays.binarySearch(ladder, initialSize) < 0) {
+            ladder = Arrays.copyOf(ladder, ladder.length + 1);
+            ladder[ladder.length - 1] = initialSize;
+            Arrays.sort(ladder);
+        }
+        this.sizes = ladder;
+        this.index = Arrays.binarySearch(ladder, initialSize);
+        this.budgetNanos = budgetMs * 1_000_000L;
+        this.latencies = new long[window];
+        this.sorted = new long[window];
+    }
+
+    /**
+     * The size the next frame should be run at.
+     */
+    public synchronized int getSize() {
+        return sizes[index];
+    }
+
+    /**
+     * The 95th percentile of the last full window, in nanoseconds, or 0 before the first one.
+     */
+    public synchronized long getP95Nanos() {
+        return p95Nanos;
+    }
+
+    /**
+     * Records the latency of a frame run at {@code size} and returns the size for the next frame.
+     * Frames run at another size than the current one, queued before a switch, are ignored.
+     */
+    public synchronized int onFrame(int size, long latencyNanos) {
+        if (size != sizes[index]) {
+            return sizes[index];
+        }
+        latencies[next] = latencyNanos;
+        next = (next + 1) % latencies.length;
+        if (count < latencies.length) {
+            ++count;
+        }
+        if (count < latencies.length) {
+            return sizes[index];
+        }
+
+        System.arraycopy(latencies, 0, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        p95Nanos = sorted[(int) Math.ceil(PERCENTILE * sorted.length) - 1];
+        if (p95Nanos > budgetNanos && index > 0) {
+            switchTo(index - 1);
+        } else if (index < sizes.length - 1) {
+            final float growth = (float) sizes[index + 1] / sizes[index];
+            if (p95Nanos * growth * growth < budgetNanos * STEP_UP_HEADROOM) {
+                switchTo(index + 1);
+            }
+        }
+        return sizes[index];
+    }
+
+    /**
+     * Drops a size the model cannot run at. The last remaining size is kept.
+     */
+    public synchronized void removeSize(int size) {
+        final int i = Arrays.binarySearch(sizes, size);
+        if (i < 0 || sizes.length == 1) {
+            return;
+        }
+        final int[] ladder = new int[sizes.length - 1];
+        System.arraycopy(sizes, 0, ladder, 0, i);
+        System.arraycopy(sizes, i + 1, ladder, i, ladder.length - i);
+        sizes = ladder;
+        // Sizes above the removed one shift down; if it was the current size, fall back to the
+        // next smaller one, which is the cheaper guess.
+        switchTo(index >= i ? Math.max(0, index - 1) : index);
+    }
+
+    private void switchTo(int newIndex) {
+        index = newIndex;
+        count = 0;
+        next = 0;
+    }
+}
@@ -0,0 +1,92 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * Picks the interpreter thread count for the device. The fastest count depends on the phone:
+ * past the number of big cores, extra threads land on slow cores and the frame waits for them.
+ * <p>
+ * On the first run for a model and backend the tuner times inferences at 1..N threads, N being
+ * the number of cores, and stores the fastest count; later runs apply the stored count without
+ * timing anything. The key includes the build fingerprint, so a system update, which can change
+ * the drivers and the scheduler, triggers a new sweep.
+ */
+public final class ThreadCountTuner {
+
+    private static final Logger LOGGER = new Logger();
+
+    private static final String PREFS_NAME = "thread_count_tuner";
+    private static final int MAX_THREADS = 8;
+    private static final int WARMUP_RUNS = 2;
+    private static final int TIMED_RUNS = 5;
+    // The sweep stops after two counts in a row this much slower than the best one.
+    private static final float STOP_SLOWDOWN = 1.15f;
+    private static final int STOP_AFTER_SLOWER = 2;
+
+    private ThreadCountTuner() {
+    }
+
+    /**
+     * Applies the stored thread count for the model on this device, tuning and storing it first
+     * if there is none. Tuning takes a few seconds, so call this off the UI thread.
+     *
+     * @return the thread count now in use.
+     */
+    public static int apply(Context context, YoloV5Classifier detector, String modelFilename) {
+        final SharedPreferences prefs =
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final String key = key(modelFilename, detector.getBackend());
+        final int stored = prefs.getInt(key, 0);
+        if (stored > 0) {
+            detector.setNumThreads(stored);
+            return stored;
+        }
+        final int best = tune(detector);
+        prefs.edit().putInt(key, best).apply();
+        return best;
+    }
+
+    /**
+     * Times inferences at increasing thread counts and leaves the detector on the fastest one.
+     * No detection may run on the detector meanwhile.
+     *
+     * @return the chosen thread count.
+     */
+    public static int tune(YoloV5Classifier detector) {
+        final int maxThreads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        int best = 1;
+        long bestNanos = Long.MAX_VALUE;
+        int slower = 0;
+        // Tensors of its own, so that the tuning does not disturb a frame being preprocessed.
+        final YoloV5Classifier.Input input = detector.newInput();
+        final YoloV5Classifier.Output output = detector.newOutput();
+        for (int n = 1; n <= maxThreads; ++n) {
+            detector.setNumThreads(n);
+            detector.timeInference(input, output, WARMUP_RUNS);
+            final long nanos = detector.timeInference(input, output, TIMED_RUNS);
+            LOGGER.i("Thread tuning: %d threads, %.2f ms", n, nanos / 1e6);
+            if (nanos < bestNanos) {
+                best = n;
+                bestNanos = nanos;
+            }
+            if (nanos > bestNanos * STOP_SLOWDOWN) {
+                if (++slower == STOP_AFTER_SLOWER) {
+                    break;
+                }
+            } else {
+                slower = 0;
+            }
+        }
+        detector.setNumThreads(best);
+        LOGGER.i("Thread tuning: using %d threads on %s", best, detector.getBackend());
+        return best;
+    }
+
+    private static String key(String modelFilename, Backend backend) {
+        return modelFilename + "/" + backend + "/" + Build.FINGERPRINT;
+    }
+}
@@ -0,0 +1,434 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+
+/**
+ * Finds signs too small to survive the downscale of a whole frame to the model input. Besides the
+ * usual pass over the whole frame, the full-resolution frame is cut into overlapping tiles of the
+ * model input size, each run at its native resolution. Tile boxes are mapped back to frame
+ * coordinates, boxes of one sign split by a tile seam are merged into one, and a single
+ * suppression runs over the boxes of every pass.
+ * <p>
+ * The candidates of every view are cached with a luma thumbnail of its region. A view only runs
+ * again once its region changed since it last ran, or its cache is too old, and the others
+ * contribute their cached candidates, so a car crossing part of the view costs the tiles it
+ * covers rather than the whole frame. The changed tiles run until a time budget is spent, at
+ * least one per frame; the next frame carries on with the tiles that were skipped, whose older
+ * candidates stand in meanwhile. The frame is read while the tiles run, so it must not be
+ * released before {@link #detect} returns. Not thread-safe, and the detector must not be used
+ * elsewhere during a call.
+ */
+public final class TiledDetector {
+
+    private static final Logger LOGGER = new Logger();
+
+    public static final float DEFAULT_OVERLAP = 0.2f;
+    /** Mean absolute luma difference of a view's thumbnail, from 0 to 255, that reruns it. */
+    public static final float DEFAULT_CHANGE_THRESHOLD = 6;
+    /** Frames after which the cached candidates of a view are used no more. */
+    public static final int DEFAULT_MAX_CACHE_AGE = 30;
+
+    // Side of the luma thumbnail a view is compared by, and samples per thumbnail cell side.
+    static final int SIGNATURE_SIZE = 16;
+    private static final int SIGNATURE_SAMPLES = 2;
+    private static final int SIGNATURE_LENGTH = SIGNATURE_SIZE * SIGNATURE_SIZE;
+
+    // Distance from a tile seam, in frame pixels, within which a box edge counts as cut by it.
+    static final float SEAM_MARGIN = 4;
+    // Fraction of the shorter of two cut boxes their extents along the seam must share to merge.
+    static final float SEAM_MIN_OVERLAP = 0.5f;
+
+    static final int CUT_LEFT = 1;
+    static final int CUT_TOP = 2;
+    static final int CUT_RIGHT = 4;
+    static final int CUT_BOTTOM = 8;
+
+    // Marks the boxes of the whole-frame pass, and those merged from several tiles.
+    private static final int NO_TILE = -1;
+    private static final int MERGED_TILES = -2;
+
+    private final YoloV5Classifier detector;
+    private final float overlap;
+    private final float changeThreshold;
+    private final int maxCacheAge;
+
+    private YoloV5Classifier.Input input;
+    private YoloV5Classifier.Output output;
+
+    // Tile layout for the current frame size, rotation and input size.
+    private int frameWidth;
+    private int frameHeight;
+    private int rotation;
+    private int tileWidth;
+    private int tileHeight;
+    private final List<Matrix> tileToFrame = new ArrayList<>();
+    private final List<RectF> tileRects = new ArrayList<>();
+    private int nextTile;
+    private long tileNanos;
+    private int lastTileCount;
+    private int lastReusedCount;
+
+    // Per view, the tiles and then the whole frame: the candidates of its last run in frame
+    // coordinates, their cut seams, frames since that run or -1 before any, and the thumbnail of
+    // the region then and now.
+    private CandidateBuffer[] cache;
+    private int[][] cacheCutEdges;
+    private int[] cacheAge;
+    private byte[] signatures;
+    private byte[] currentSignatures;
+
+    private CandidateBuffer collected;
+    private int[] tileOf;
+    private int[] cutEdges;
+    private boolean[] removed;
+    private CandidateBuffer merged;
+    private NmsEngine nmsEngine;
+    private int[] keptIndices;
+    private final RectF box = new RectF();
+
+    public TiledDetector(YoloV5Classifier detector) {
+        this(detector, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * @param overlap Fraction of a tile shared with each neighbour; a sign smaller than the
+     *                overlap is whole in at least one tile.
+     */
+    public TiledDetector(YoloV5Classifier detector, float overlap) {
+        this(detector, overlap, DEFAULT_CHANGE_THRESHOLD, DEFAULT_MAX_CACHE_AGE);
+    }
+
+    /**
+     * @param overlap         Fraction of a tile shared with each neighbour; a sign smaller than
+     *                        the overlap is whole in at least one tile.
+     * @param changeThreshold Mean absolute luma difference, from 0 to 255, of a view's thumbnail
+     *                        since it last ran that runs it again; 0 runs every view every frame
+     *                        the budget allows.
+     * @param maxCacheAge     Frames after which a view runs whatever its change, and its cached
+     *                        candidates are used no more.
+     */
+    public TiledDetector(YoloV5Classifier detector, float overlap, float changeThreshold,
+                         int maxCacheAge) {
+        if (overlap < 0 || overlap >= 1) {
+            throw new IllegalArgumentException("Overlap must be in [0, 1): " + overlap);
+        }
+        if (maxCacheAge < 1) {
+            throw new IllegalArgumentException("Cache age must be positive: " + maxCacheAge);
+        }
+        this.detector = detector;
+        this.overlap = overlap;
+        this.changeThreshold = changeThreshold;
+        this.maxCacheAge = maxCacheAge;
+    }
+
+    /**
+     * Detects on the whole frame through {@code cropToFrame}, then on as many changed tiles as
+     * fit in {@code budgetNanos}, and returns the merged detections in frame coordinates, with
+     * the cached ones of the views that did not run.
+     *
+     * @param rotation Rotation that makes the frame upright, as for the whole-frame crop.
+     */
+    public List<Recognition> detect(YuvFrame frame, Matrix cropToFrame, int rotation, long budgetNanos) {
+        final long start = System.nanoTime();
+        updateLayout(frame.width, frame.height, rotation);
+        final int tiles = tileToFrame.size();
+        for (int view = 0; view <= tiles; ++view) {
+            if (cacheAge[view] >= 0) {
+                ++cacheAge[view];
+            }
+            final RectF rect = view < tiles ? tileRects.get(view) : null;
+            frame.lumaThumbnail(
+                    rect == null ? 0 : Math.max(0, (int) rect.left),
+                    rect == null ? 0 : Math.max(0, (int) rect.top),
+                    rect == null ? frameWidth : Math.min(frameWidth, (int) rect.right),
+                    rect == null ? frameHeight : Math.min(frameHeight, (int) rect.bottom),
+                    SIGNATURE_SIZE, SIGNATURE_SAMPLES, currentSignatures, view * SIGNATURE_LENGTH);
+        }
+
+        if (hasChanged(tiles)) {
+            runView(frame, cropToFrame, tiles, null);
+        }
+        int ran = 0;
+        int changed = 0;
+        int next = nextTile;
+        for (int i = 0; i < tiles; ++i) {
+            final int tile = (nextTile + i) % tiles;
+            if (!hasChanged(tile)) {
+                continue;
+            }
+            ++changed;
+            if (ran > 0 && System.nanoTime() - start + tileNanos > budgetNanos) {
+                continue;
+            }
+            final long tileStart = System.nanoTime();
+            runView(frame, tileToFrame.get(tile), tile, tileRects.get(tile));
+            final long nanos = System.nanoTime() - tileStart;
+            tileNanos = tileNanos == 0 ? nanos : (3 * tileNanos + nanos) / 4;
+            ++ran;
+            next = (tile + 1) % tiles;
+        }
+        nextTile = next;
+        lastTileCount = ran;
+
+        collected.clear();
+        int reused = 0;
+        for (int view = 0; view <= tiles; ++view) {
+            if (cacheAge[view] < 0 || cacheAge[view] > maxCacheAge) {
+                continue;
+            }
+            if (cacheAge[view] > 0) {
+                ++reused;
+            }
+            final CandidateBuffer c = cache[view];
+            ensureCapacity(collected.size() + c.size());
+            for (int i = 0; i < c.size(); ++i) {
+                final int k = collected.add(c.left[i], c.top[i], c.right[i], c.bottom[i],
+                        c.score[i], c.detectedClass[i]);
+                tileOf[k] = view < tiles ? view : NO_TILE;
+                cutEdges[k] = cacheCutEdges[view][i];
+                removed[k] = false;
+            }
+        }
+        lastReusedCount = reused;
+
+        final int mergedCount = mergeSeams(collected, tileOf, cutEdges, removed);
+        merged.setLimit(detector.getPreNmsTopK());
+        for (int i = 0; i < collected.size(); ++i) {
+            if (!removed[i]) {
+                merged.add(collected.left[i], collected.top[i], collected.right[i],
+                        collected.bottom[i], collected.score[i], collected.detectedClass[i]);
+            }
+        }
+        LOGGER.v("Tiled detection: %d of %d tiles, %d changed, %d views cached, %d boxes, "
+                        + "%d merged at seams, %.1f ms",
+                ran, tiles, changed, reused, collected.size(), mergedCount,
+                (System.nanoTime() - start) / 1e6);
+        return detector.nms(merged, nmsEngine, keptIndices);
+    }
+
+    /**
+     * Tiles the frame is cut into; 0 if it is not larger than the model input.
+     */
+    public int getTileCount() {
+        return tileToFrame.size();
+    }
+
+    /**
+     * Tiles run by the last call to {@link #detect}.
+     */
+    public int getLastTileCount() {
+        return lastTileCount;
+    }
+
+    /**
+     * Views, the whole frame included, whose cached candidates the last call to {@link #detect}
+     * used instead of running them.
+     */
+    public int getLastReusedCount() {
+        return lastReusedCount;
+    }
+
+    // True if the view never ran, its cache is too old, or its region changed since it ran.
+    private boolean hasChanged(int view) {
+        if (cacheAge[view] < 0 || cacheAge[view] >= maxCacheAge) {
+            return true;
+        }
+        final int offset = view * SIGNATURE_LENGTH;
+        return YuvFrame.meanAbsDifference(signatures, offset, currentSignatures, offset,
+                SIGNATURE_LENGTH) >= changeThreshold;
+    }
+
+    private void runView(YuvFrame frame, Matrix viewToFrame, int view, RectF tileRect) {
+        detector.preprocess(frame, viewToFrame, input);
+        detector.infer(input, output);
+        final CandidateBuffer candidates = detector.decodeCandidates(output);
+        if (cache[view] == null || cache[view].capacity() < candidates.size()) {
+            cache[view] = new CandidateBuffer(Math.max(candidates.size(), detector.getPreNmsTopK()));
+            cacheCutEdges[view] = new int[cache[view].capacity()];
+        }
+        final CandidateBuffer c = cache[view];
+        c.clear();
+        for (int i = 0; i < candidates.size(); ++i) {
+            box.set(candidates.left[i], candidates.top[i], candidates.right[i], candidates.bottom[i]);
+            viewToFrame.mapRect(box);
+            final int k = c.add(box.left, box.top, box.right, box.bottom,
+                    candidates.score[i], candidates.detectedClass[i]);
+            cacheCutEdges[view][k] = tileRect == null ? 0 : cutEdges(box, tileRect);
+        }
+        cacheAge[view] = 0;
+        System.arraycopy(currentSignatures, view * SIGNATURE_LENGTH, signatures,
+                view * SIGNATURE_LENGTH, SIGNATURE_LENGTH);
+    }
+
+    /**
+     * The seams of {@code tileRect} that {@code box} touches; the frame border is not a seam.
+     */
+    private int cutEdges(RectF box, RectF tileRect) {
+        int cut = 0;
+        if (tileRect.left > SEAM_MARGIN && box.left - tileRect.left < SEAM_MARGIN) {
+            cut |= CUT_LEFT;
+        }
+        if (tileRect.top > SEAM_MARGIN && box.top - tileRect.top < SEAM_MARGIN) {
+            cut |= CUT_TOP;
+        }
+        if (tileRect.right < frameWidth - SEAM_MARGIN && tileRect.right - box.right < SEAM_MARGIN) {
+            cut |= CUT_RIGHT;
+        }
+        if (tileRect.bottom < frameHeight - SEAM_MARGIN && tileRect.bottom - box.bottom < SEAM_MARGIN) {
+            cut |= CUT_BOTTOM;
+        }
+        return cut;
+    }
+
+    /**
+     * Merges boxes of the same class from different tiles that are both cut by a seam and meet
+     * across it into their union, keeping the higher score. Merged-away boxes are flagged in
+     * {@code removed}, which must be cleared for the buffer's boxes. Returns how many were merged
+     * away.
+     */
+    static int mergeSeams(CandidateBuffer c, int[] tileOf, int[] cutEdges, boolean[] removed) {
+        int mergedAway = 0;
+        for (int i = 0; i < c.size(); ++i) {
+            if (cutEdges[i] == 0 || removed[i] || isEmpty(c, i)) {
+                continue;
+            }
+            for (int j = i + 1; j < c.size(); ++j) {
+                if (cutEdges[j] == 0 || removed[j] || isEmpty(c, j)
+                        || c.detectedClass[j] != c.detectedClass[i]
+                        || (tileOf[i] == tileOf[j] && tileOf[i] != MERGED_TILES)) {
+                    continue;
+                }
+                final float overlapX = Math.min(c.right[i], c.right[j]) - Math.max(c.left[i], c.left[j]);
+                final float overlapY = Math.min(c.bottom[i], c.bottom[j]) - Math.max(c.top[i], c.top[j]);
+                if (overlapX < -SEAM_MARGIN || overlapY < -SEAM_MARGIN) {
+                    continue;
+                }
+                final float shareX = overlapX
+                        / Math.min(c.right[i] - c.left[i], c.right[j] - c.left[j]);
+                final float shareY = overlapY
+                        / Math.min(c.bottom[i] - c.top[i], c.bottom[j] - c.top[j]);
+                if (Math.max(shareX, shareY) < SEAM_MIN_OVERLAP) {
+                    continue;
+                }
+                c.left[i] = Math.min(c.left[i], c.left[j]);
+                c.top[i] = Math.min(c.top[i], c.top[j]);
+                c.right[i] = Math.max(c.right[i], c.right[j]);
+                c.bottom[i] = Math.max(c.bottom[i], c.bottom[j]);
+                c.score[i] = Math.max(c.score[i], c.score[j]);
+                cutEdges[i] |= cutEdges[j];
+                tileOf[i] = MERGED_TILES;
+                removed[j] = true;
+                ++mergedAway;
+            }
+        }
+        return mergedAway;
+    }
+
+    // A box without area has no extent to share along a seam, and is never merged.
+    private static boolean isEmpty(CandidateBuffer c, int i) {
+        return !(c.right[i] > c.left[i] && c.bottom[i] > c.top[i]);
+    }
+
+    /**
+     * Positions of {@code count} tiles of {@code tileLength} spread evenly over {@code length},
+     * the first at 0 and the last at the end, overlapping by at least {@code overlap}.
+     */
+    static int[] tilePositions(int length, int tileLength, float overlap) {
+        if (length <= tileLength) {
+            return new int[]{0};
+        }
+        final float step = tileLength * (1 - overlap);
+        final int count = (int) Math.ceil((length - tileLength) / step) + 1;
+        final int[] positions = new int[count];
+        for (int i = 0; i < count; ++i) {
+            positions[i] = Math.round((float) i * (length - tileLength) / (count - 1));
+        }
+        return positions;
+    }
+
+    private void updateLayout(int width, int height, int rotation) {
+        final int inputWidth = detector.getInputWidth();
+        final int inputHeight = detector.getInputHeight();
+        if (input != null && width == frameWidth && height == frameHeight
+                && rotation == this.rotation && inputWidth == tileWidth && inputHeight == tileHeight) {
+            return;
+        }
+        frameWidth = width;
+        frameHeight = height;
+        this.rotation = rotation;
+        tileWidth = inputWidth;
+        tileHeight = inputHeight;
+        input = detector.newInput();
+        output = detector.newOutput();
+        tileToFrame.clear();
+        tileRects.clear();
+        nextTile = 0;
+        tileNanos = 0;
+
+        final boolean transpose = (Math.abs(rotation) + 90) % 180 == 0;
+        final int uprightWidth = transpose ? height : width;
+        final int uprightHeight = transpose ? width : height;
+        if (uprightWidth < tileWidth || uprightHeight < tileHeight) {
+            LOGGER.w("Frame %dx%d is smaller than a %dx%d tile, detecting on the whole frame only",
+                    uprightWidth, uprightHeight, tileWidth, tileHeight);
+        } else {
+            final Matrix uprightToFrame = new Matrix();
+            ImageUtils.getTransformationMatrix(width, height, uprightWidth, uprightHeight, rotation, false)
+                    .invert(uprightToFrame);
+            for (final int y : tilePositions(uprightHeight, tileHeight, overlap)) {
+                for (final int x : tilePositions(uprightWidth, tileWidth, overlap)) {
+                    final Matrix m = new Matrix(uprightToFrame);
+                    m.preTranslate(x, y);
+                    final RectF rect = new RectF(0, 0, tileWidth, tileHeight);
+                    m.mapRect(rect);
+                    tileToFrame.add(m);
+                    tileRects.add(rect);
+                }
+            }
+            LOGGER.i("Tiled detection: %d tiles of %dx%d over %dx%d",
+                    tileToFrame.size(), tileWidth, tileHeight, uprightWidth, uprightHeight);
+        }
+        final int views = tileToFrame.size() + 1;
+        cache = new CandidateBuffer[views];
+        cacheCutEdges = new int[views][];
+        cacheAge = new int[views];
+        Arrays.fill(cacheAge, -1);
+        signatures = new byte[views * SIGNATURE_LENGTH];
+        currentSignatures = new byte[views * SIGNATURE_LENGTH];
+        ensureCapacity((tileToFrame.size() + 1) * detector.getPreNmsTopK());
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (collected != null && collected.capacity() >= capacity) {
+            return;
+        }
+        final CandidateBuffer previous = collected;
+        collected = new CandidateBuffer(capacity);
+        final int[] previousTileOf = tileOf;
+        final int[] previousCutEdges = cutEdges;
+        tileOf = new int[capacity];
+        cutEdges = new int[capacity];
+        removed = new boolean[capacity];
+        if (previous != null) {
+            for (int i = 0; i < previous.size(); ++i) {
+                collected.add(previous.left[i], previous.top[i], previous.right[i],
+                        previous.bottom[i], previous.score[i], previous.detectedClass[i]);
+                tileOf[i] = previousTileOf[i];
+                cutEdges[i] = previousCutEdges[i];
+            }
+        }
+        merged = new CandidateBuffer(capacity);
+        nmsEngine = detector.copyNmsEngine(capacity);
+        keptIndices = new int[capacity];
+    }
+}
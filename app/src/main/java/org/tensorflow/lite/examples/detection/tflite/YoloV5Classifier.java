@@ -17,16 +17,15 @@ package org.tensorflow.lite.examples.detection.tflite;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.RectF;
-import android.os.Build;
 import android.util.Log;
 
-import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.detection.env.Logger;
 import org.tensorflow.lite.examples.detection.env.Utils;
-import org.tensorflow.lite.gpu.GpuDelegate;
-import org.tensorflow.lite.nnapi.NnApiDelegate;
+import org.tensorflow.lite.examples.detection.env.WorkerPool;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 
 
 import java.io.BufferedReader;
@@ -35,12 +34,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 
@@ -58,22 +57,17 @@ public class YoloV5Classifier implements Classifier {
     /**
      * Initializes a native TensorFlow session for classifying images.
      *
-     * @param assetManager  The asset manager to be used to load assets.
-     * @param modelFilename The filepath of the model GraphDef protocol buffer.
-     * @param labelFilename The filepath of label file for classes.
-     * @param isQuantized   Boolean representing model is quantized or not
+     * @param assetManager The asset manager to be used to load assets.
+     * @param descriptor   The model and its layout, see {@link ModelRegistry}.
      */
     public static YoloV5Classifier create(
             final AssetManager assetManager,
-            final String modelFilename,
-            final String labelFilename,
-            final boolean isQuantized,
-            final int inputSize)
+            final ModelDescriptor descriptor)
             throws IOException {
         final YoloV5Classifier d = new YoloV5Classifier();
+        final String modelFilename = descriptor.getModelFilename();
 
-        String actualFilename = labelFilename.split("file:///android_asset/")[1];
-        InputStream labelsInput = assetManager.open(actualFilename);
+        InputStream labelsInput = assetManager.open(descriptor.getLabelFilename());
         BufferedReader br = new BufferedReader(new InputStreamReader(labelsInput));
         String line;
         while ((line = br.readLine()) != null) {
@@ -81,72 +75,160 @@ public class YoloV5Classifier implements Classifier {
             d.labels.add(line);
         }
         br.close();
+        if (d.labels.size() < descriptor.getNumClasses()) {
+            throw new IllegalArgumentException(descriptor.getLabelFilename() + " has "
+                    + d.labels.size() + " labels for the " + descriptor.getNumClasses()
+                    + " classes of " + modelFilename);
+        }
 
         try {
-            Interpreter.Options options = (new Interpreter.Options());
-            options.setNumThreads(NUM_THREADS);
-            if (isNNAPI) {
-                d.nnapiDelegate = null;
-                // Initialize interpreter with NNAPI delegate for Android Pie or above
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    d.nnapiDelegate = new NnApiDelegate();
-                    options.addDelegate(d.nnapiDelegate);
-                    options.setNumThreads(NUM_THREADS);
-//                    options.setUseNNAPI(false);
-//                    options.setAllowFp16PrecisionForFp32(true);
-//                    options.setAllowBufferHandleOutput(true);
-                    options.setUseNNAPI(true);
-                }
-            }
-            if (isGPU) {
-                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
-                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
-                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
-                d.gpuDelegate = new GpuDelegate(gpu_options);
-                options.addDelegate(d.gpuDelegate);
-            }
-            d.tfliteModel = Utils.loadModelFile(assetManager, modelFilename);
-            d.tfLite = new Interpreter(d.tfliteModel, options);
+            d.interpreter = new InterpreterHandle(Utils.loadModelFile(assetManager, modelFilename),
+                    NUM_THREADS, DEFAULT_BACKEND);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
-        d.isModelQuantized = isQuantized;
+        d.isModelQuantized = descriptor.isQuantized();
         // Pre-allocate buffers.
         int numBytesPerChannel;
-        if (isQuantized) {
+        if (d.isModelQuantized) {
             numBytesPerChannel = 1; // Quantized
         } else {
             numBytesPerChannel = 4; // Floating point
         }
-        d.INPUT_SIZE = inputSize;
-        d.imgData = ByteBuffer.allocateDirect(1 * d.INPUT_SIZE * d.INPUT_SIZE * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.intValues = new int[d.INPUT_SIZE * d.INPUT_SIZE];
-
-        d.output_box = (int) ((Math.pow((inputSize / 32), 2) + Math.pow((inputSize / 16), 2) + Math.pow((inputSize / 8), 2)) * 3);
-//        d.OUTPUT_WIDTH = output_width;
-//        d.MASKS = masks;
-//        d.ANCHORS = anchors;
+        d.INPUT_WIDTH = descriptor.getInputWidth();
+        d.INPUT_HEIGHT = descriptor.getInputHeight();
+        d.numBytesPerChannel = numBytesPerChannel;
+        d.intValues = new int[d.INPUT_WIDTH * d.INPUT_HEIGHT];
+
+        d.output_box = descriptor.getNumBoxes();
+        d.normalizedBoxes = descriptor.hasNormalizedBoxes();
+        d.updateBoxScale();
         if (d.isModelQuantized) {
-            Tensor inpten = d.tfLite.getInputTensor(0);
+            Tensor inpten = d.interpreter.get().getInputTensor(0);
             d.inp_scale = inpten.quantizationParams().getScale();
             d.inp_zero_point = inpten.quantizationParams().getZeroPoint();
-            Tensor oupten = d.tfLite.getOutputTensor(0);
+            Tensor oupten = d.interpreter.get().getOutputTensor(0);
             d.oup_scale = oupten.quantizationParams().getScale();
             d.oup_zero_point = oupten.quantizationParams().getZeroPoint();
+            d.quantizedOutput = QuantizedOutput.of(oupten, false);
         }
 
-        int[] shape = d.tfLite.getOutputTensor(0).shape();
-        int numClass = shape[shape.length - 1] - 5;
+        d.numClass = descriptor.getNumClasses();
+        d.allocateBuffers();
+        return d;
+    }
+
+    /**
+     * Creates another classifier for the same model that shares the labels and the memory-mapped
+     * model but has its own interpreter on the current backend, tensors, post-processing state
+     * and a worker pool of {@code numThreads} threads for preprocessing and NMS, so the two can
+     * run on different threads at once. Thresholds and NMS settings are copied.
+     */
+    YoloV5Classifier newInstance(int numThreads) {
+        final YoloV5Classifier d = new YoloV5Classifier();
+        d.interpreter = new InterpreterHandle(interpreter.getModel(), numThreads,
+                interpreter.getBackend(), interpreter.getInputShape());
+        d.workerPool = new WorkerPool(numThreads, WorkerPool.DEFAULT_MIN_ROWS_PER_STRIPE);
+        d.ownsWorkerPool = true;
+
+        d.labels = labels;
+        d.isModelQuantized = isModelQuantized;
+        d.INPUT_WIDTH = INPUT_WIDTH;
+        d.INPUT_HEIGHT = INPUT_HEIGHT;
+        d.numBytesPerChannel = numBytesPerChannel;
+        d.intValues = new int[intValues.length];
+        d.output_box = output_box;
+        d.normalizedBoxes = normalizedBoxes;
+        d.boxScaleX = boxScaleX;
+        d.boxScaleY = boxScaleY;
+        d.inp_scale = inp_scale;
+        d.inp_zero_point = inp_zero_point;
+        d.oup_scale = oup_scale;
+        d.oup_zero_point = oup_zero_point;
+        d.quantizedOutput = quantizedOutput;
         d.numClass = numClass;
-        d.outData = ByteBuffer.allocateDirect(d.output_box * (numClass + 5) * numBytesPerChannel);
-        d.outData.order(ByteOrder.nativeOrder());
+        d.objectnessFloor = objectnessFloor;
+        d.mNmsThresh = mNmsThresh;
+        d.preNmsTopK = preNmsTopK;
+        d.allocateBuffers();
+        d.nmsEngine = nmsEngine.copy();
+        d.nmsEngine.setWorkerPool(d.workerPool);
         return d;
     }
 
+    private void allocateBuffers() {
+        input = newInput();
+        output = newOutput();
+        candidates = new CandidateBuffer(output_box);
+        candidates.setLimit(preNmsTopK);
+        nmsEngine = new NmsEngine(output_box, labels.size());
+        nmsEngine.setWorkerPool(workerPool);
+        keptIndices = new int[output_box];
+        passingRows = new int[output_box];
+        updateRawThresholds();
+    }
+
+    /**
+     * The longer side of the input, which is the side of a square one.
+     */
     public int getInputSize() {
-        return INPUT_SIZE;
+        return Math.max(INPUT_WIDTH, INPUT_HEIGHT);
+    }
+
+    public int getInputWidth() {
+        return INPUT_WIDTH;
+    }
+
+    public int getInputHeight() {
+        return INPUT_HEIGHT;
+    }
+
+    /**
+     * Resizes the model input to a {@code size} x {@code size} square, see
+     * {@link #setInputSize(int, int)}.
+     */
+    public void setInputSize(int size) {
+        setInputSize(size, size);
+    }
+
+    /**
+     * Resizes the model input to {@code width} x {@code height} and reallocates the buffers that
+     * depend on it. YOLOv5 is fully convolutional, so one model runs at any multiple of its
+     * largest stride on either side; smaller inputs are faster, larger ones find smaller signs,
+     * and an input with the aspect ratio of the camera covers the whole view without paying for
+     * cropped pixels. Thresholds, NMS settings, the backend and the thread count are kept.
+     * <p>
+     * If the model cannot run at that size the exception is thrown and the classifier stays at
+     * its previous size. Inputs and outputs created before the call no longer fit, and it must
+     * not be called while a detection is running.
+     *
+     * @throws IllegalArgumentException if a side is not a positive multiple of 32.
+     */
+    public void setInputSize(int width, int height) {
+        if (width == INPUT_WIDTH && height == INPUT_HEIGHT) {
+            return;
+        }
+        if (width <= 0 || height <= 0 || width % MAX_STRIDE != 0 || height % MAX_STRIDE != 0) {
+            throw new IllegalArgumentException("Input sides must be positive multiples of "
+                    + MAX_STRIDE + ": " + width + "x" + height);
+        }
+        interpreter.resizeInput(new int[]{1, height, width, PIXEL_SIZE});
+        INPUT_WIDTH = width;
+        INPUT_HEIGHT = height;
+        output_box = interpreter.get().getOutputTensor(0).shape()[1];
+        updateBoxScale();
+        intValues = new int[INPUT_WIDTH * INPUT_HEIGHT];
+        final NmsEngine previousNms = nmsEngine;
+        allocateBuffers();
+        nmsEngine = previousNms.copy(output_box);
+        resetBatch();
+        LOGGER.i("Input size %dx%d, %d boxes", INPUT_WIDTH, INPUT_HEIGHT, output_box);
+    }
+
+    private void updateBoxScale() {
+        boxScaleX = normalizedBoxes ? INPUT_WIDTH : 1;
+        boxScaleY = normalizedBoxes ? INPUT_HEIGHT : 1;
     }
 
     @Override
@@ -160,27 +242,50 @@ public class YoloV5Classifier implements Classifier {
 
     @Override
     public void close() {
-        tfLite.close();
-        tfLite = null;
-        if (gpuDelegate != null) {
-            gpuDelegate.close();
-            gpuDelegate = null;
+        closeBatch();
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
         }
-        if (nnapiDelegate != null) {
-            nnapiDelegate.close();
-            nnapiDelegate = null;
+        if (ownsWorkerPool) {
+            workerPool.shutdown();
         }
-        tfliteModel = null;
     }
 
+    /**
+     * Rebuilds the interpreter to run on {@code num_threads} threads, keeping the backend and
+     * the model mapping. Must not be called while a detection is running.
+     */
     public void setNumThreads(int num_threads) {
-        Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(num_threads);
+        if (num_threads != interpreter.getNumThreads()) {
+            interpreter.rebuild(num_threads, interpreter.getBackend());
+            resetBatch();
+        }
+    }
+
+    public int getNumThreads() {
+        return interpreter.getNumThreads();
+    }
+
+    /**
+     * Rebuilds the interpreter to run on {@code backend}, keeping the thread count and the model
+     * mapping. If the backend cannot run the model the exception is thrown and the classifier
+     * stays on its previous backend. Must not be called while a detection is running.
+     */
+    public void setBackend(Backend backend) {
+        if (backend != interpreter.getBackend()) {
+            interpreter.rebuild(interpreter.getNumThreads(), backend);
+            resetBatch();
+        }
+    }
+
+    public Backend getBackend() {
+        return interpreter.getBackend();
     }
 
     @Override
     public void setUseNNAPI(boolean isChecked) {
-//        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
+        setBackend(isChecked ? Backend.NNAPI : Backend.CPU);
     }
 
     @Override
@@ -188,29 +293,43 @@ public class YoloV5Classifier implements Classifier {
         return 0;
     }
 
-    private void recreateInterpreter() {
-        if (tfLite != null) {
-            tfLite.close();
-            tfLite = new Interpreter(tfliteModel, tfliteOptions);
-        }
+    /**
+     * Sets the objectness score below which an anchor row is rejected before its class scores are
+     * read. Since the class confidence is objectness times a class probability, no row under the
+     * floor can produce a detection scoring above it.
+     */
+    public void setObjectnessFloor(float floor) {
+        objectnessFloor = floor;
+        updateRawThresholds();
+    }
+
+    public float getObjectnessFloor() {
+        return objectnessFloor;
+    }
+
+    /**
+     * Caps the number of boxes passed to non maximum suppression; the highest scoring ones are
+     * kept while decoding, which bounds the suppression time on cluttered frames.
+     */
+    public void setPreNmsTopK(int topK) {
+        preNmsTopK = topK;
+        candidates.setLimit(topK);
+    }
+
+    public int getPreNmsTopK() {
+        return candidates.getLimit();
     }
 
     public void useGpu() {
-        if (gpuDelegate == null) {
-            gpuDelegate = new GpuDelegate();
-            tfliteOptions.addDelegate(gpuDelegate);
-            recreateInterpreter();
-        }
+        setBackend(Backend.GPU);
     }
 
     public void useCPU() {
-        recreateInterpreter();
+        setBackend(Backend.CPU);
     }
 
     public void useNNAPI() {
-        nnapiDelegate = new NnApiDelegate();
-        tfliteOptions.addDelegate(nnapiDelegate);
-        recreateInterpreter();
+        setBackend(Backend.NNAPI);
     }
 
 
@@ -222,42 +341,48 @@ public class YoloV5Classifier implements Classifier {
     private final float IMAGE_STD = 255.0f;
 
     //config yolo
-    private int INPUT_SIZE = -1;
+    private int INPUT_WIDTH = -1;
+    private int INPUT_HEIGHT = -1;
 
     //    private int[] OUTPUT_WIDTH;
 //    private int[][] MASKS;
 //    private int[] ANCHORS;
     private int output_box;
+    // Output boxes are relative to the input size rather than in input pixels.
+    private boolean normalizedBoxes;
+    // Multiply the output boxes into input pixels: the input sides for normalized boxes, else 1.
+    private float boxScaleX;
+    private float boxScaleY;
 
     private static final float[] XYSCALE = new float[]{1.2f, 1.1f, 1.05f};
 
     private static final int NUM_BOXES_PER_BLOCK = 3;
 
-    // Number of threads in the java app
-    private static final int NUM_THREADS = 1;
-    private static boolean isNNAPI = false;
-    private static boolean isGPU = false;
+    // Largest downsampling of the detection heads; the input sides must be multiples of it.
+    public static final int MAX_STRIDE = 32;
 
-    private boolean isModelQuantized;
+    // Fixed objectness pre-filter. getObjThresh() returns 0, so this is the only cut made before
+    // NMS, and it must stay below the confidence threshold the caller applies to the results
+    // (MINIMUM_CONFIDENCE_TF_OD_API = 0.8 in DetectorActivity); since confidence is objectness
+    // times a class probability, rows under the floor could never pass that threshold anyway.
+    public static final float DEFAULT_OBJECTNESS_FLOOR = 0.25f;
+    private float objectnessFloor = DEFAULT_OBJECTNESS_FLOOR;
 
-    /**
-     * holds a gpu delegate
-     */
-    GpuDelegate gpuDelegate = null;
-    /**
-     * holds an nnapi delegate
-     */
-    NnApiDelegate nnapiDelegate = null;
+    // Far above the boxes a frame of signs produces, while keeping suppression time bounded.
+    public static final int DEFAULT_PRE_NMS_TOP_K = 1024;
+    private int preNmsTopK = DEFAULT_PRE_NMS_TOP_K;
 
-    /**
-     * The loaded TensorFlow Lite model.
-     */
-    private MappedByteBuffer tfliteModel;
+    // Interpreter settings until they are changed or tuned, see BackendSelector and
+    // ThreadCountTuner.
+    private static final int NUM_THREADS = 1;
+    private static final Backend DEFAULT_BACKEND = Backend.CPU;
+
+    private boolean isModelQuantized;
 
     /**
-     * Options for configuring the Interpreter.
+     * The interpreter over the memory-mapped model, with its delegate.
      */
-    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
+    private InterpreterHandle interpreter;
 
     // Config values.
 
@@ -265,63 +390,96 @@ public class YoloV5Classifier implements Classifier {
     private Vector<String> labels = new Vector<String>();
     private int[] intValues;
 
-    private ByteBuffer imgData;
-    private ByteBuffer outData;
+    private int numBytesPerChannel;
+    // Tensors used by the synchronous calls.
+    private Input input;
+    private Output output;
+
+    // Batched inference, see recognizeImages: the interpreter, the tensors of the whole batch and
+    // views of them for each image. Null until the first batch.
+    private InterpreterHandle batchInterpreter;
+    private Input batchInput;
+    private Output batchOutput;
+    private Input[] batchInputs;
+    private Output[] batchOutputs;
+    private boolean batchUnsupported;
+
+    // Threads for preprocessing and NMS: the shared default pool, or one of this instance's own
+    // when it is a pooled sibling, shut down on close.
+    private WorkerPool workerPool = WorkerPool.getDefault();
+    private boolean ownsWorkerPool;
+
+    // Decoder state reused across frames so that steady-state decoding does not allocate.
+    private CandidateBuffer candidates;
+    private NmsEngine nmsEngine;
+    private int[] keptIndices;
+    private int[] passingRows;
 
-    private Interpreter tfLite;
     private float inp_scale;
     private int inp_zero_point;
     private float oup_scale;
     private int oup_zero_point;
     private int numClass;
 
-    private YoloV5Classifier() {
+    // Quantized post-processing: thresholds expressed as raw output keys.
+    private QuantizedOutput quantizedOutput;
+    private int rawObjectnessFloor;
+    private int rawClassFloor;
+
+    // Package-private so that tests of DetectorPool can pool instances without an interpreter.
+    YoloV5Classifier() {
     }
 
     //non maximum suppression
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
+    protected ArrayList<Recognition> nms(CandidateBuffer list) {
+        return nms(list, nmsEngine, keptIndices);
+    }
 
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
+    /**
+     * Suppresses {@code list} with {@code engine}, which may be larger than this classifier's own,
+     * using {@code kept} as scratch space of at least the list's capacity.
+     */
+    ArrayList<Recognition> nms(CandidateBuffer list, NmsEngine engine, int[] kept) {
+        final int keptCount = engine.run(list, mNmsThresh, kept);
+        ArrayList<Recognition> nmsList = new ArrayList<Recognition>(keptCount);
+        for (int k = 0; k < keptCount; ++k) {
+            final int i = kept[k];
+            final int detectedClass = list.detectedClass[i];
+            nmsList.add(new Recognition("0", labels.get(detectedClass), list.score[i],
+                    new RectF(list.left[i], list.top[i], list.right[i], list.bottom[i]), detectedClass));
         }
         return nmsList;
     }
 
+    /**
+     * If true, overlapping boxes suppress each other even when they are of different classes.
+     */
+    public void setClassAgnosticNms(boolean classAgnostic) {
+        nmsEngine.setClassAgnostic(classAgnostic);
+    }
+
+    /**
+     * Lets look-alike classes suppress each other; see {@link NmsEngine#setClassGroups(int[])}.
+     */
+    public void setNmsClassGroups(int[] groupOfClass) {
+        nmsEngine.setClassGroups(groupOfClass);
+    }
+
+    /**
+     * Selects greedy, Matrix or Soft NMS; see {@link NmsEngine.Mode}.
+     */
+    public void setNmsMode(NmsEngine.Mode mode) {
+        nmsEngine.setMode(mode);
+    }
+
+    /**
+     * Returns a suppression engine with this classifier's NMS settings for up to
+     * {@code capacity} candidates, for merging the boxes of several inferences.
+     */
+    NmsEngine copyNmsEngine(int capacity) {
+        return nmsEngine.copy(capacity);
+    }
+
     protected float mNmsThresh = 0.6f;
 
     protected float box_iou(RectF a, RectF b) {
@@ -357,111 +515,395 @@ public class YoloV5Classifier implements Classifier {
     protected static final int BATCH_SIZE = 1;
     protected static final int PIXEL_SIZE = 3;
 
+    /**
+     * Input tensor of one frame, with its own preprocessor so that several can be filled from
+     * different threads.
+     */
+    static final class Input {
+        final ByteBuffer imgData;
+        final Object[] inputArray;
+        final InputPreprocessor preprocessor;
+        final float[] cropToFrameValues = new float[9];
+        // Size the decoded boxes are clamped to.
+        int imageWidth;
+        int imageHeight;
+
+        Input(ByteBuffer imgData, InputPreprocessor preprocessor) {
+            this.imgData = imgData;
+            this.inputArray = new Object[]{imgData};
+            this.preprocessor = preprocessor;
+        }
+    }
+
+    /**
+     * Output tensor of one frame.
+     */
+    static final class Output {
+        final ByteBuffer outData;
+        // View of outData for float models, null for quantized ones.
+        final FloatBuffer outFloats;
+        final Map<Integer, Object> outputMap = new HashMap<>();
+        int imageWidth;
+        int imageHeight;
+
+        Output(ByteBuffer outData, boolean isQuantized) {
+            this.outData = outData;
+            this.outFloats = isQuantized ? null : outData.asFloatBuffer();
+            outputMap.put(0, outData);
+        }
+    }
+
+    Input newInput() {
+        ByteBuffer imgData = ByteBuffer.allocateDirect(1 * INPUT_WIDTH * INPUT_HEIGHT * 3 * numBytesPerChannel);
+        imgData.order(ByteOrder.nativeOrder());
+        return new Input(imgData, newPreprocessor());
+    }
+
+    private InputPreprocessor newPreprocessor() {
+        final InputPreprocessor preprocessor = isModelQuantized
+                ? InputPreprocessor.forQuantized(IMAGE_MEAN, IMAGE_STD, inp_scale, inp_zero_point)
+                : InputPreprocessor.forFloat(IMAGE_MEAN, IMAGE_STD);
+        preprocessor.setWorkerPool(workerPool);
+        return preprocessor;
+    }
+
+    Output newOutput() {
+        ByteBuffer outData = ByteBuffer.allocateDirect(output_box * (numClass + 5) * numBytesPerChannel);
+        outData.order(ByteOrder.nativeOrder());
+        return new Output(outData, isModelQuantized);
+    }
+
     /**
      * Writes Image data into a {@code ByteBuffer}.
      */
     protected ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-//        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-//        byteBuffer.order(ByteOrder.nativeOrder());
-//        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-
-        imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
+        return preprocess(bitmap, input);
+    }
+
+    /**
+     * Writes a camera frame into the input {@code ByteBuffer} in one pass, sampling the YUV planes
+     * at the positions given by {@code cropToFrame} instead of going through an ARGB bitmap.
+     * Follow with {@link #recognizeConvertedFrame()}; the frame may be released in between.
+     */
+    public void convertFrameToByteBuffer(YuvFrame frame, Matrix cropToFrame) {
+        preprocess(frame, cropToFrame, input);
+    }
+
+    /**
+     * Runs detection on the input written by {@link #convertFrameToByteBuffer}.
+     */
+    public ArrayList<Recognition> recognizeConvertedFrame() {
+        infer(input, output);
+        return postprocess(output);
+    }
+
+    public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
+        preprocess(bitmap, input);
+        infer(input, output);
+        return postprocess(output);
+    }
+
+    /**
+     * Runs the bitmaps, each of the input size, in one invocation of an interpreter whose batch
+     * dimension is resized to their count, and decodes each image on its own. The batch
+     * interpreter shares the model mapping and is kept for the next call with as many images; a
+     * call with another count resizes it. If the model cannot run batches, for instance because
+     * the export fixed its batch to one, the images are run one by one from then on.
+     */
+    @Override
+    public List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps) {
+        final List<List<Recognition>> results = new ArrayList<>(bitmaps.size());
+        for (final Bitmap bitmap : bitmaps) {
+            if (bitmap.getWidth() != INPUT_WIDTH || bitmap.getHeight() != INPUT_HEIGHT) {
+                throw new IllegalArgumentException("Bitmap is " + bitmap.getWidth() + "x"
+                        + bitmap.getHeight() + ", expected " + INPUT_WIDTH + "x" + INPUT_HEIGHT);
+            }
+        }
+        if (bitmaps.size() < 2 || !prepareBatch(bitmaps.size())) {
+            for (final Bitmap bitmap : bitmaps) {
+                results.add(recognizeImage(bitmap));
             }
+            return results;
         }
-        return imgData;
+
+        for (int k = 0; k < bitmaps.size(); ++k) {
+            preprocess(bitmaps.get(k), batchInputs[k]);
+        }
+        batchOutput.outData.rewind();
+        batchInterpreter.get().runForMultipleInputsOutputs(batchInput.inputArray, batchOutput.outputMap);
+        for (int k = 0; k < bitmaps.size(); ++k) {
+            final Output out = batchOutputs[k];
+            out.imageWidth = batchInputs[k].imageWidth;
+            out.imageHeight = batchInputs[k].imageHeight;
+            results.add(postprocess(out));
+        }
+        return results;
     }
 
-    public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
-        ByteBuffer byteBuffer_ = convertBitmapToByteBuffer(bitmap);
+    /**
+     * Makes the batch interpreter and its buffers ready for {@code n} images. Returns false if the
+     * model cannot run a batch.
+     */
+    private boolean prepareBatch(int n) {
+        if (batchUnsupported) {
+            return false;
+        }
+        if (batchInterpreter != null && batchInputs.length == n) {
+            return true;
+        }
+        final int[] shape = {n, INPUT_HEIGHT, INPUT_WIDTH, PIXEL_SIZE};
+        try {
+            if (batchInterpreter == null) {
+                batchInterpreter = new InterpreterHandle(interpreter.getModel(),
+                        interpreter.getNumThreads(), interpreter.getBackend(), shape);
+            } else {
+                batchInterpreter.resizeInput(shape);
+            }
+            final int[] outputShape = batchInterpreter.get().getOutputTensor(0).shape();
+            if (outputShape[0] != n || outputShape[1] != output_box) {
+                throw new IllegalStateException("Output shape " + Arrays.toString(outputShape)
+                        + " for a batch of " + n);
+            }
+        } catch (RuntimeException | LinkageError e) {
+            LOGGER.w("Model cannot run a batch of %d, running images one by one: %s", n, e);
+            closeBatch();
+            batchUnsupported = true;
+            return false;
+        }
 
-        Map<Integer, Object> outputMap = new HashMap<>();
+        final int inputBytes = INPUT_WIDTH * INPUT_HEIGHT * PIXEL_SIZE * numBytesPerChannel;
+        final int outputBytes = output_box * (numClass + 5) * numBytesPerChannel;
+        final ByteBuffer imgData = ByteBuffer.allocateDirect(n * inputBytes);
+        imgData.order(ByteOrder.nativeOrder());
+        final ByteBuffer outData = ByteBuffer.allocateDirect(n * outputBytes);
+        outData.order(ByteOrder.nativeOrder());
+        batchInput = new Input(imgData, newPreprocessor());
+        batchOutput = new Output(outData, isModelQuantized);
+        batchInputs = new Input[n];
+        batchOutputs = new Output[n];
+        for (int k = 0; k < n; ++k) {
+            batchInputs[k] = new Input(slice(imgData, k * inputBytes, inputBytes), newPreprocessor());
+            batchOutputs[k] = new Output(slice(outData, k * outputBytes, outputBytes), isModelQuantized);
+        }
+        LOGGER.i("Batch interpreter for %d images", n);
+        return true;
+    }
 
-//        float[][][] outbuf = new float[1][output_box][labels.size() + 5];
-        outData.rewind();
-        outputMap.put(0, outData);
-        Log.d("YoloV5Classifier", "mObjThresh: " + getObjThresh());
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
 
-        Object[] inputArray = {imgData};
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+    // Closes the batch interpreter and lets the next batch try again, after the input size or the
+    // interpreter settings changed.
+    private void resetBatch() {
+        closeBatch();
+        batchUnsupported = false;
+    }
 
-        ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(0);
-        byteBuffer.rewind();
+    private void closeBatch() {
+        if (batchInterpreter != null) {
+            batchInterpreter.close();
+        }
+        batchInterpreter = null;
+        batchInput = null;
+        batchOutput = null;
+        batchInputs = null;
+        batchOutputs = null;
+    }
 
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
+    // The three stages of a detection, used by the calls above and by DetectionPipeline. Each
+    // stage may only run on one thread at a time: preprocess shares intValues, infer the
+    // interpreter, and postprocess the candidate and suppression buffers.
 
-        float[][][] out = new float[1][output_box][numClass + 5];
-        Log.d("YoloV5Classifier", "out[0] detect start");
-        for (int i = 0; i < output_box; ++i) {
-            for (int j = 0; j < numClass + 5; ++j) {
-                if (isModelQuantized) {
-                    out[0][i][j] = oup_scale * (((int) byteBuffer.get() & 0xFF) - oup_zero_point);
-                } else {
-                    out[0][i][j] = byteBuffer.getFloat();
-                }
-            }
-            // Denormalize xywh
-            for (int j = 0; j < 4; ++j) {
-                out[0][i][j] *= getInputSize();
+    ByteBuffer preprocess(Bitmap bitmap, Input in) {
+        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        in.imageWidth = bitmap.getWidth();
+        in.imageHeight = bitmap.getHeight();
+        return in.preprocessor.process(intValues, INPUT_WIDTH, INPUT_HEIGHT, in.imgData);
+    }
+
+    ByteBuffer preprocess(YuvFrame frame, Matrix cropToFrame, Input in) {
+        cropToFrame.getValues(in.cropToFrameValues);
+        in.imageWidth = INPUT_WIDTH;
+        in.imageHeight = INPUT_HEIGHT;
+        return in.preprocessor.processYuv(frame, in.cropToFrameValues, INPUT_WIDTH, INPUT_HEIGHT, in.imgData);
+    }
+
+    void infer(Input in, Output out) {
+        out.outData.rewind();
+        interpreter.get().runForMultipleInputsOutputs(in.inputArray, out.outputMap);
+        out.imageWidth = in.imageWidth;
+        out.imageHeight = in.imageHeight;
+    }
+
+    /**
+     * Runs {@code runs} inferences on the current input so that the first real frame does not pay
+     * for the lazy initialization of the interpreter and its delegate. Must not be called while a
+     * detection is running.
+     */
+    public void warmUp(int runs) {
+        timeInference(input, output, runs);
+    }
+
+    /**
+     * Runs {@code runs} inferences and returns the median time of one, in nanoseconds. Used to
+     * compare interpreter settings.
+     */
+    long timeInference(Input in, Output out, int runs) {
+        final long[] times = new long[runs];
+        for (int i = 0; i < runs; ++i) {
+            final long start = System.nanoTime();
+            infer(in, out);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[runs / 2];
+    }
+
+    ArrayList<Recognition> postprocess(Output out) {
+        decode(out);
+        return nms(candidates);
+    }
+
+    /**
+     * Decodes {@code out} without suppression. The returned buffer is reused by the next decode.
+     */
+    CandidateBuffer decodeCandidates(Output out) {
+        decode(out);
+        return candidates;
+    }
+
+    private void updateRawThresholds() {
+        if (quantizedOutput == null) {
+            return;
+        }
+        rawObjectnessFloor = quantizedOutput.rawThreshold(Math.max(objectnessFloor, getObjThresh()));
+        // A class score must be positive, and since objectness is at most 1 it must also exceed the
+        // detection threshold on its own.
+        rawClassFloor = quantizedOutput.rawThreshold(Math.max(0, getObjThresh()));
+    }
+
+    /**
+     * Decodes the raw output tensor into {@link #candidates}, reading {@code outData} in place
+     * with absolute indexing instead of copying it into a {@code float[][][]}.
+     * <p>
+     * The first pass only looks at the objectness column; the class argmax and box construction
+     * run for the rows that pass it, which are usually a small fraction of all anchors.
+     */
+    private void decode(Output out) {
+        candidates.clear();
+        final int imageWidth = out.imageWidth;
+        final int imageHeight = out.imageHeight;
+        if (isModelQuantized) {
+            decodeQuantized(out.outData, imageWidth, imageHeight);
+            return;
+        }
+        final FloatBuffer outFloats = out.outFloats;
+        final int rowSize = numClass + 5;
+        final float objThresh = getObjThresh();
+        final float floor = Math.max(objectnessFloor, objThresh);
+
+        // 1.objectness scan
+        int passing = 0;
+        for (int i = 0, row = 4; i < output_box; ++i, row += rowSize) {
+            if (outFloats.get(row) > floor) {
+                passingRows[passing++] = i;
             }
         }
-        for (int i = 0; i < output_box; ++i) {
-            final int offset = 0;
-            final float confidence = out[0][i][4];
+
+        // 2.class argmax and boxes for the surviving rows
+        for (int p = 0; p < passing; ++p) {
+            final int row = passingRows[p] * rowSize;
+            final float confidence = outFloats.get(row + 4);
+            // Class scores are at most 1, so a full top-K buffer already beats this row.
+            if (!(confidence > candidates.scoreToBeat())) {
+                continue;
+            }
             int detectedClass = -1;
             float maxClass = 0;
 
-            final float[] classes = new float[labels.size()];
-            for (int c = 0; c < labels.size(); ++c) {
-                classes[c] = out[0][i][5 + c];
+            for (int c = 0; c < numClass; ++c) {
+                final float cls = outFloats.get(row + 5 + c);
+                if (cls > maxClass) {
+                    detectedClass = c;
+                    maxClass = cls;
+                }
+            }
+
+            final float confidenceInClass = maxClass * confidence;
+            if (detectedClass >= 0 && confidenceInClass > objThresh) {
+                addCandidate(outFloats.get(row), outFloats.get(row + 1),
+                        outFloats.get(row + 2), outFloats.get(row + 3),
+                        confidenceInClass, detectedClass, imageWidth, imageHeight);
+            }
+        }
+    }
+
+    /**
+     * Same two passes as {@link #decode} for the 8-bit model, but the objectness scan and the class
+     * argmax compare raw output bytes; only the surviving row is dequantized, by table lookup.
+     */
+    private void decodeQuantized(ByteBuffer outData, int imageWidth, int imageHeight) {
+        final QuantizedOutput q = quantizedOutput;
+        final int rowSize = numClass + 5;
+        final float objThresh = getObjThresh();
+
+        // 1.objectness scan
+        int passing = 0;
+        for (int i = 0, row = 4; i < output_box; ++i, row += rowSize) {
+            if (q.key(outData.get(row)) > rawObjectnessFloor) {
+                passingRows[passing++] = i;
+            }
+        }
+
+        // 2.class argmax and boxes for the surviving rows
+        for (int p = 0; p < passing; ++p) {
+            final int row = passingRows[p] * rowSize;
+            final float confidence = q.value(q.key(outData.get(row + 4)));
+            // Dequantized class scores can land slightly above 1, so bound them by the top key.
+            if (!(confidence * q.value(255) > candidates.scoreToBeat())) {
+                continue;
             }
+            int detectedClass = -1;
+            int maxKey = rawClassFloor;
 
-            for (int c = 0; c < labels.size(); ++c) {
-                if (classes[c] > maxClass) {
+            for (int c = 0; c < numClass; ++c) {
+                final int key = q.key(outData.get(row + 5 + c));
+                if (key > maxKey) {
                     detectedClass = c;
-                    maxClass = classes[c];
+                    maxKey = key;
                 }
             }
+            if (detectedClass < 0) {
+                continue;
+            }
 
-            final float confidenceInClass = maxClass * confidence;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][i][0];
-                final float yPos = out[0][i][1];
-
-                final float w = out[0][i][2];
-                final float h = out[0][i][3];
-                Log.d("YoloV5Classifier",
-                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
+            final float confidenceInClass = q.value(maxKey) * confidence;
+            if (confidenceInClass > objThresh) {
+                addCandidate(q.value(q.key(outData.get(row))), q.value(q.key(outData.get(row + 1))),
+                        q.value(q.key(outData.get(row + 2))), q.value(q.key(outData.get(row + 3))),
+                        confidenceInClass, detectedClass, imageWidth, imageHeight);
             }
         }
+    }
 
-        Log.d("YoloV5Classifier", "detect end");
-        final ArrayList<Recognition> recognitions = nms(detections);
-//        final ArrayList<Recognition> recognitions = detections;
-        return recognitions;
+    private void addCandidate(float x, float y, float w, float h, float confidenceInClass,
+                              int detectedClass, int imageWidth, int imageHeight) {
+        // Denormalize xywh
+        final float xPos = x * boxScaleX;
+        final float yPos = y * boxScaleY;
+        final float halfW = w * boxScaleX / 2;
+        final float halfH = h * boxScaleY / 2;
+
+        candidates.add(
+                Math.max(0, xPos - halfW),
+                Math.max(0, yPos - halfH),
+                Math.min(imageWidth - 1, xPos + halfW),
+                Math.min(imageHeight - 1, yPos + halfH),
+                confidenceInClass, detectedClass);
     }
 
     public boolean checkInvalidateBox(float x, float y, float width, float height, float oriW, float oriH, int intputSize) {
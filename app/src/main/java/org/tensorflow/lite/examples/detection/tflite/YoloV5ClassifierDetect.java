@@ -18,15 +18,11 @@ package org.tensorflow.lite.examples.detection.tflite;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.Build;
 import android.util.Log;
 
-import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.detection.env.Logger;
 import org.tensorflow.lite.examples.detection.env.Utils;
-import org.tensorflow.lite.gpu.GpuDelegate;
-import org.tensorflow.lite.nnapi.NnApiDelegate;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -34,12 +30,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 import static org.tensorflow.lite.examples.detection.env.Utils.expit;
@@ -74,6 +68,26 @@ public class YoloV5ClassifierDetect implements Classifier {
             final int[][] masks,
             final int[] anchors)
             throws IOException {
+        return create(assetManager, modelFilename, labelFilename, isQuantized, inputSize, inputSize,
+                output_width, masks, anchors);
+    }
+
+    /**
+     * Initializes a classifier for a model with a {@code inputWidth} x {@code inputHeight} input.
+     * {@code output_width} holds the grid width of each head; the grid heights follow from the
+     * stride of the head, {@code inputWidth / output_width[i]}.
+     */
+    public static YoloV5ClassifierDetect create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final boolean isQuantized,
+            final int inputWidth,
+            final int inputHeight,
+            final int[] output_width,
+            final int[][] masks,
+            final int[] anchors)
+            throws IOException {
         final YoloV5ClassifierDetect d = new YoloV5ClassifierDetect();
 
         String actualFilename = labelFilename.split("file:///android_asset/")[1];
@@ -87,30 +101,8 @@ public class YoloV5ClassifierDetect implements Classifier {
         br.close();
 
         try {
-            Interpreter.Options options = (new Interpreter.Options());
-            options.setNumThreads(NUM_THREADS);
-            if (isNNAPI) {
-                d.nnapiDelegate = null;
-                // Initialize interpreter with NNAPI delegate for Android Pie or above
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    d.nnapiDelegate = new NnApiDelegate();
-                    options.addDelegate(d.nnapiDelegate);
-                    options.setNumThreads(NUM_THREADS);
-//                    options.setUseNNAPI(false);
-//                    options.setAllowFp16PrecisionForFp32(true);
-//                    options.setAllowBufferHandleOutput(true);
-                    options.setUseNNAPI(true);
-                }
-            }
-            if (isGPU) {
-                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
-                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
-                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
-                d.gpuDelegate = new GpuDelegate(gpu_options);
-                options.addDelegate(d.gpuDelegate);
-            }
-            d.tfliteModel = Utils.loadModelFile(assetManager, modelFilename);
-            d.tfLite = new Interpreter(d.tfliteModel, options);
+            d.interpreter = new InterpreterHandle(Utils.loadModelFile(assetManager, modelFilename),
+                    NUM_THREADS, DEFAULT_BACKEND);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -123,42 +115,77 @@ public class YoloV5ClassifierDetect implements Classifier {
         } else {
             numBytesPerChannel = 4; // Floating point
         }
-        d.INPUT_SIZE = inputSize;
+        d.INPUT_WIDTH = inputWidth;
+        d.INPUT_HEIGHT = inputHeight;
         d.OUTPUT_WIDTH = output_width;
-        d.imgData = ByteBuffer.allocateDirect(1 * d.INPUT_SIZE * d.INPUT_SIZE * 3 * numBytesPerChannel);
+        d.OUTPUT_HEIGHT = new int[output_width.length];
+        for (int i = 0; i < output_width.length; ++i) {
+            d.OUTPUT_HEIGHT[i] = inputHeight / (inputWidth / output_width[i]);
+        }
+        d.imgData = ByteBuffer.allocateDirect(1 * d.INPUT_WIDTH * d.INPUT_HEIGHT * 3 * numBytesPerChannel);
         d.imgData.order(ByteOrder.nativeOrder());
         d.outData = new ByteBuffer[masks.length];
 
-        int[] shape = d.tfLite.getOutputTensor(0).shape();
+        int[] shape = d.interpreter.get().getOutputTensor(0).shape();
         int numClass = shape[shape.length - 1] - 5;
         for (int i = 0; i < masks.length; ++i) {
-            d.outData[i] = ByteBuffer.allocateDirect(1 * d.OUTPUT_WIDTH[i] * d.OUTPUT_WIDTH[i] *
+            d.outData[i] = ByteBuffer.allocateDirect(1 * d.OUTPUT_WIDTH[i] * d.OUTPUT_HEIGHT[i] *
                     masks[i].length * (5 + numClass) * numBytesPerChannel);
             d.outData[i].order(ByteOrder.nativeOrder());
         }
 
-        d.intValues = new int[d.INPUT_SIZE * d.INPUT_SIZE];
+        d.intValues = new int[d.INPUT_WIDTH * d.INPUT_HEIGHT];
         if (d.isModelQuantized) {
-            Tensor inpten = d.tfLite.getInputTensor(0);
+            Tensor inpten = d.interpreter.get().getInputTensor(0);
             d.inp_scale = inpten.quantizationParams().getScale();
             d.inp_zero_point = inpten.quantizationParams().getZeroPoint();
 
             d.oup_scales = new float[masks.length];
             d.oup_zero_points = new int[masks.length];
+            d.quantizedOutputs = new QuantizedOutput[masks.length];
+            d.rawObjThresholds = new int[masks.length];
+            d.rawClassThresholds = new int[masks.length];
 
             for (int i = 0; i < masks.length; ++i) {
-                Tensor oupten = d.tfLite.getOutputTensor(i);
+                Tensor oupten = d.interpreter.get().getOutputTensor(i);
                 d.oup_scales[i] = oupten.quantizationParams().getScale();
                 d.oup_zero_points[i] = oupten.quantizationParams().getZeroPoint();
+                // The heads emit logits, so the tables hold expit(dequantized) directly.
+                d.quantizedOutputs[i] = QuantizedOutput.of(oupten, true);
+                d.rawObjThresholds[i] = d.quantizedOutputs[i].rawThreshold(d.getObjThresh());
+                d.rawClassThresholds[i] = d.quantizedOutputs[i].rawThreshold(0);
             }
         }
+        d.preprocessor = d.isModelQuantized
+                ? InputPreprocessor.forQuantized(d.IMAGE_MEAN, d.IMAGE_STD, d.inp_scale, d.inp_zero_point)
+                : InputPreprocessor.forFloat(d.IMAGE_MEAN, d.IMAGE_STD);
         d.MASKS = masks;
         d.ANCHORS = anchors;
+
+        int maxBoxes = 0;
+        for (int i = 0; i < masks.length; ++i) {
+            maxBoxes += d.OUTPUT_WIDTH[i] * d.OUTPUT_HEIGHT[i] * masks[i].length;
+        }
+        d.candidates = new CandidateBuffer(maxBoxes);
+        d.candidates.setLimit(YoloV5Classifier.DEFAULT_PRE_NMS_TOP_K);
+        d.nmsEngine = new NmsEngine(maxBoxes, d.labels.size());
+        d.keptIndices = new int[maxBoxes];
         return d;
     }
 
+    /**
+     * The longer side of the input, which is the side of a square one.
+     */
     public int getInputSize() {
-        return INPUT_SIZE;
+        return Math.max(INPUT_WIDTH, INPUT_HEIGHT);
+    }
+
+    public int getInputWidth() {
+        return INPUT_WIDTH;
+    }
+
+    public int getInputHeight() {
+        return INPUT_HEIGHT;
     }
 
     @Override
@@ -172,52 +199,44 @@ public class YoloV5ClassifierDetect implements Classifier {
 
     @Override
     public void close() {
-        tfLite.close();
-        tfLite = null;
-        if (gpuDelegate != null) {
-            gpuDelegate.close();
-            gpuDelegate = null;
-        }
-        if (nnapiDelegate != null) {
-            nnapiDelegate.close();
-            nnapiDelegate = null;
-        }
-        tfliteModel = null;
+        interpreter.close();
     }
 
+    /**
+     * Rebuilds the interpreter to run on {@code num_threads} threads, keeping the backend and
+     * the model mapping.
+     */
     public void setNumThreads(int num_threads) {
-        Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(num_threads);
+        if (num_threads != interpreter.getNumThreads()) {
+            interpreter.rebuild(num_threads, interpreter.getBackend());
+        }
     }
 
-    @Override
-    public void setUseNNAPI(boolean isChecked) {
-//        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
+    /**
+     * Rebuilds the interpreter to run on {@code backend}, keeping the thread count and the model
+     * mapping.
+     */
+    public void setBackend(Backend backend) {
+        if (backend != interpreter.getBackend()) {
+            interpreter.rebuild(interpreter.getNumThreads(), backend);
+        }
     }
 
-    private void recreateInterpreter() {
-        if (tfLite != null) {
-            tfLite.close();
-            tfLite = new Interpreter(tfliteModel, tfliteOptions);
-        }
+    @Override
+    public void setUseNNAPI(boolean isChecked) {
+        setBackend(isChecked ? Backend.NNAPI : Backend.CPU);
     }
 
     public void useGpu() {
-        if (gpuDelegate == null) {
-            gpuDelegate = new GpuDelegate();
-            tfliteOptions.addDelegate(gpuDelegate);
-            recreateInterpreter();
-        }
+        setBackend(Backend.GPU);
     }
 
     public void useCPU() {
-        recreateInterpreter();
+        setBackend(Backend.CPU);
     }
 
     public void useNNAPI() {
-        nnapiDelegate = new NnApiDelegate();
-        tfliteOptions.addDelegate(nnapiDelegate);
-        recreateInterpreter();
+        setBackend(Backend.NNAPI);
     }
 
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.9f;
@@ -234,9 +253,12 @@ public class YoloV5ClassifierDetect implements Classifier {
     private final float IMAGE_STD = 255.0f;
 
     //config yolo
-    private int INPUT_SIZE = -1;
+    private int INPUT_WIDTH = -1;
+    private int INPUT_HEIGHT = -1;
 
+    // Grid size of each output head.
     private int[] OUTPUT_WIDTH;
+    private int[] OUTPUT_HEIGHT;
     private int[][] MASKS;
     private int[] ANCHORS;
 
@@ -244,31 +266,16 @@ public class YoloV5ClassifierDetect implements Classifier {
 
     private static final int NUM_BOXES_PER_BLOCK = 3;
 
-    // Number of threads in the java app
+    // Interpreter settings until they are changed.
     private static final int NUM_THREADS = 1;
-    private static boolean isNNAPI = false;
-    private static boolean isGPU = false;
+    private static final Backend DEFAULT_BACKEND = Backend.CPU;
 
     private boolean isModelQuantized;
 
     /**
-     * holds a gpu delegate
-     */
-    GpuDelegate gpuDelegate = null;
-    /**
-     * holds an nnapi delegate
+     * The interpreter over the memory-mapped model, with its delegate.
      */
-    NnApiDelegate nnapiDelegate = null;
-
-    /**
-     * The loaded TensorFlow Lite model.
-     */
-    private MappedByteBuffer tfliteModel;
-
-    /**
-     * Options for configuring the Interpreter.
-     */
-    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
+    private InterpreterHandle interpreter;
 
     // Config values.
 
@@ -278,60 +285,65 @@ public class YoloV5ClassifierDetect implements Classifier {
 
     private ByteBuffer imgData;
     private ByteBuffer[] outData;
-    private Interpreter tfLite;
+    private InputPreprocessor preprocessor;
 
     private float inp_scale;
     private int inp_zero_point;
     private float[] oup_scales;
     private int[] oup_zero_points;
+    private QuantizedOutput[] quantizedOutputs;
+    private int[] rawObjThresholds;
+    private int[] rawClassThresholds;
+
+    private CandidateBuffer candidates;
+    private NmsEngine nmsEngine;
+    private int[] keptIndices;
 
     private YoloV5ClassifierDetect() {
     }
 
     //non maximum suppression
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
-
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
+    protected ArrayList<Recognition> nms(CandidateBuffer list) {
+        final int kept = nmsEngine.run(list, mNmsThresh, keptIndices);
+        ArrayList<Recognition> nmsList = new ArrayList<Recognition>(kept);
+        for (int k = 0; k < kept; ++k) {
+            final int i = keptIndices[k];
+            final int detectedClass = list.detectedClass[i];
+            nmsList.add(new Recognition("0", labels.get(detectedClass), list.score[i],
+                    new RectF(list.left[i], list.top[i], list.right[i], list.bottom[i]), detectedClass));
         }
         return nmsList;
     }
 
+    /**
+     * If true, overlapping boxes suppress each other even when they are of different classes.
+     */
+    public void setClassAgnosticNms(boolean classAgnostic) {
+        nmsEngine.setClassAgnostic(classAgnostic);
+    }
+
+    /**
+     * Lets look-alike classes suppress each other; see {@link NmsEngine#setClassGroups(int[])}.
+     */
+    public void setNmsClassGroups(int[] groupOfClass) {
+        nmsEngine.setClassGroups(groupOfClass);
+    }
+
+    /**
+     * Selects greedy, Matrix or Soft NMS; see {@link NmsEngine.Mode}.
+     */
+    public void setNmsMode(NmsEngine.Mode mode) {
+        nmsEngine.setMode(mode);
+    }
+
+    /**
+     * Caps the number of boxes passed to non maximum suppression; see
+     * {@link YoloV5Classifier#setPreNmsTopK(int)}.
+     */
+    public void setPreNmsTopK(int topK) {
+        candidates.setLimit(topK);
+    }
+
     protected float mNmsThresh = 0.6f;
 
     protected float box_iou(RectF a, RectF b) {
@@ -367,26 +379,23 @@ public class YoloV5ClassifierDetect implements Classifier {
     protected static final int BATCH_SIZE = 1;
     protected static final int PIXEL_SIZE = 3;
 
+    /**
+     * Runs the images one by one; the heads of this model are sized for a batch of one.
+     */
+    @Override
+    public List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps) {
+        final List<List<Recognition>> results = new ArrayList<>(bitmaps.size());
+        for (final Bitmap bitmap : bitmaps) {
+            results.add(recognizeImage(bitmap));
+        }
+        return results;
+    }
+
     public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
         Map<Integer, Object> outputMap = new HashMap<>();
 
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        }
+        preprocessor.process(intValues, INPUT_WIDTH, INPUT_HEIGHT, imgData);
 
         for (int i = 0; i < OUTPUT_WIDTH.length; i++) {
             outData[i].rewind();
@@ -396,46 +405,34 @@ public class YoloV5ClassifierDetect implements Classifier {
         Log.d("YoloV5Classifier", "mObjThresh: " + getObjThresh());
 
         Object[] inputArray = {imgData};
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        interpreter.get().runForMultipleInputsOutputs(inputArray, outputMap);
 
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
+        candidates.clear();
 
         for (int i = 0; i < OUTPUT_WIDTH.length; i++) {
             int gridWidth = OUTPUT_WIDTH[i];
+            int gridHeight = OUTPUT_HEIGHT[i];
+            float gridScale = 1.0f * INPUT_WIDTH / gridWidth;
             ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(i);
             byteBuffer.rewind();
-            float[][][][] out = new float[1][NUM_BOXES_PER_BLOCK][gridWidth * gridWidth][5 + labels.size()];
             if (isModelQuantized) {
-                for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                    for (int y = 0; y < gridWidth; ++y) {
-                        for (int x = 0; x < gridWidth; ++x) {
-                            for (int c = 0; c < 5 + labels.size(); ++c) {
-                                out[0][b][y * gridWidth + x][c] =
-                                        oup_scales[i] * (((int) byteBuffer.get() & 0xFF) - oup_zero_points[i]);
-                            }
-                        }
-                    }
-                }
-            } else {
-                for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                    for (int y = 0; y < gridWidth; ++y) {
-                        for (int x = 0; x < gridWidth; ++x) {
-                            for (int c = 0; c < 5 + labels.size(); ++c) {
-                                out[0][b][y * gridWidth + x][c] = byteBuffer.getFloat();
-                            }
+                decodeQuantizedHead(i, byteBuffer, bitmap);
+                continue;
+            }
+            float[][][][] out = new float[1][NUM_BOXES_PER_BLOCK][gridWidth * gridHeight][5 + labels.size()];
+            for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
+                for (int y = 0; y < gridHeight; ++y) {
+                    for (int x = 0; x < gridWidth; ++x) {
+                        for (int c = 0; c < 5 + labels.size(); ++c) {
+                            out[0][b][y * gridWidth + x][c] = byteBuffer.getFloat();
                         }
                     }
                 }
             }
             Log.d("YoloV5Classifier", "out[" + i + "] detect start");
-            for (int y = 0; y < gridWidth; ++y) {
+            for (int y = 0; y < gridHeight; ++y) {
                 for (int x = 0; x < gridWidth; ++x) {
                     for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                        final int offset =
-                                (gridWidth * (NUM_BOXES_PER_BLOCK * (labels.size() + 5))) * y
-                                        + (NUM_BOXES_PER_BLOCK * (labels.size() + 5)) * x
-                                        + (labels.size() + 5) * b;
-
                         final float confidence = expit(out[0][b][y * gridWidth + x][4]);
                         int detectedClass = -1;
                         float maxClass = 0;
@@ -453,21 +450,20 @@ public class YoloV5ClassifierDetect implements Classifier {
                         }
 
                         final float confidenceInClass = maxClass * confidence;
-                        if (confidenceInClass > getObjThresh()) {
-                            final float xPos = (x + expit(out[0][b][y * gridWidth + x][0]) * 2.f - 0.5f) * (1.0f * INPUT_SIZE / gridWidth);
-                            final float yPos = (y + expit(out[0][b][y * gridWidth + x][1]) * 2.f - 0.5f) * (1.0f * INPUT_SIZE / gridWidth);
+                        if (confidenceInClass > getObjThresh()
+                                && confidenceInClass > candidates.scoreToBeat()) {
+                            final float xPos = (x + expit(out[0][b][y * gridWidth + x][0]) * 2.f - 0.5f) * gridScale;
+                            final float yPos = (y + expit(out[0][b][y * gridWidth + x][1]) * 2.f - 0.5f) * gridScale;
 
                             final float w = (float) (Math.pow(expit(out[0][b][y * gridWidth + x][2]) * 2, 2) * ANCHORS[2 * MASKS[i][b]]);
                             final float h = (float) (Math.pow(expit(out[0][b][y * gridWidth + x][3]) * 2, 2) * ANCHORS[2 * MASKS[i][b] + 1]);
 
-                            final RectF rect =
-                                    new RectF(
-                                            Math.max(0, xPos - w / 2),
-                                            Math.max(0, yPos - h / 2),
-                                            Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                            Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                            detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                                    confidenceInClass, rect, detectedClass));
+                            candidates.add(
+                                    Math.max(0, xPos - w / 2),
+                                    Math.max(0, yPos - h / 2),
+                                    Math.min(bitmap.getWidth() - 1, xPos + w / 2),
+                                    Math.min(bitmap.getHeight() - 1, yPos + h / 2),
+                                    confidenceInClass, detectedClass);
                         }
                     }
                 }
@@ -475,11 +471,73 @@ public class YoloV5ClassifierDetect implements Classifier {
             Log.d("YoloV5Classifier", "out[" + i + "] detect end");
         }
 
-        final ArrayList<Recognition> recognitions = nms(detections);
+        final ArrayList<Recognition> recognitions = nms(candidates);
 
         return recognitions;
     }
 
+    /**
+     * Decodes one quantized output head without dequantizing it: objectness and class scores are
+     * compared as raw keys, and only rows that clear the threshold go through the expit tables.
+     */
+    private void decodeQuantizedHead(int i, ByteBuffer byteBuffer, Bitmap bitmap) {
+        final QuantizedOutput q = quantizedOutputs[i];
+        final int rawObjThreshold = rawObjThresholds[i];
+        final int gridWidth = OUTPUT_WIDTH[i];
+        final int gridHeight = OUTPUT_HEIGHT[i];
+        final int rowSize = 5 + labels.size();
+        final float gridScale = 1.0f * INPUT_WIDTH / gridWidth;
+
+        for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
+            for (int y = 0; y < gridHeight; ++y) {
+                for (int x = 0; x < gridWidth; ++x) {
+                    final int row = ((b * gridHeight + y) * gridWidth + x) * rowSize;
+                    final int objKey = q.key(byteBuffer.get(row + 4));
+                    // Class scores are at most 1, so the objectness alone must clear the threshold.
+                    if (objKey <= rawObjThreshold) {
+                        continue;
+                    }
+                    // Likewise it must beat the lowest box of a full top-K buffer.
+                    final float confidence = q.value(objKey);
+                    if (!(confidence > candidates.scoreToBeat())) {
+                        continue;
+                    }
+
+                    int detectedClass = -1;
+                    int maxKey = rawClassThresholds[i];
+                    for (int c = 0; c < labels.size(); ++c) {
+                        final int key = q.key(byteBuffer.get(row + 5 + c));
+                        if (key > maxKey) {
+                            detectedClass = c;
+                            maxKey = key;
+                        }
+                    }
+                    if (detectedClass < 0) {
+                        continue;
+                    }
+
+                    final float confidenceInClass = q.value(maxKey) * confidence;
+                    if (confidenceInClass > getObjThresh()) {
+                        final float xPos = (x + q.value(q.key(byteBuffer.get(row))) * 2.f - 0.5f) * gridScale;
+                        final float yPos = (y + q.value(q.key(byteBuffer.get(row + 1))) * 2.f - 0.5f) * gridScale;
+
+                        final float sw = q.value(q.key(byteBuffer.get(row + 2))) * 2;
+                        final float sh = q.value(q.key(byteBuffer.get(row + 3))) * 2;
+                        final float w = sw * sw * ANCHORS[2 * MASKS[i][b]];
+                        final float h = sh * sh * ANCHORS[2 * MASKS[i][b] + 1];
+
+                        candidates.add(
+                                Math.max(0, xPos - w / 2),
+                                Math.max(0, yPos - h / 2),
+                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
+                                Math.min(bitmap.getHeight() - 1, yPos + h / 2),
+                                confidenceInClass, detectedClass);
+                    }
+                }
+            }
+        }
+    }
+
     public boolean checkInvalidateBox(float x, float y, float width, float height, float oriW, float oriH, int intputSize) {
         // (1) (x, y, w, h) --> (xmin, ymin, xmax, ymax)
         float halfHeight = height / 2.0f;
@@ -0,0 +1,162 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.Arrays;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/**
+ * Estimates how image regions moved between consecutive camera frames by block matching on the Y
+ * plane, downsampled by {@link #DOWNSAMPLE} in each direction. Each region is matched with the
+ * sum of absolute differences over a full search of {@link #SEARCH_RADIUS} thumbnail pixels, so a
+ * match costs a few tens of thousands of byte operations. Also measures the overall motion of
+ * the scene on a grid of blocks, for callers that adapt to it.
+ */
+public final class BlockMatcher {
+  /** Side of the frame pixel squares averaged into one thumbnail pixel. */
+  public static final int DOWNSAMPLE = 4;
+  /** Largest shift searched, in thumbnail pixels. */
+  static final int SEARCH_RADIUS = 6;
+
+  // Blocks are the centre of a region, clamped to these sides in thumbnail pixels.
+  private static final int MIN_BLOCK = 4;
+  private static final int MAX_BLOCK = 16;
+  private static final int GRID = 3;
+
+  private byte[] previous = new byte[0];
+  private byte[] current = new byte[0];
+  private int width;
+  private int height;
+  private boolean hasPrevious;
+  private float motion;
+  private final float[] gridMotion = new float[GRID * GRID];
+  private final float[] shift = new float[2];
+
+  /** Downsamples the Y plane of {@code frame}, which becomes the frame regions are matched into. */
+  public void update(final YuvFrame frame) {
+    final int w = frame.width / DOWNSAMPLE;
+    final int h = frame.height / DOWNSAMPLE;
+    final byte[] swap = previous;
+    previous = current;
+    current = swap.length == w * h ? swap : new byte[w * h];
+    hasPrevious = w == width && h == height && previous.length == w * h;
+    width = w;
+    height = h;
+
+    final int area = DOWNSAMPLE * DOWNSAMPLE;
+    for (int ty = 0; ty < h; ++ty) {
+      for (int tx = 0; tx < w; ++tx) {
+        int sum = 0;
+        for (int dy = 0; dy < DOWNSAMPLE; ++dy) {
+          final int row = (ty * DOWNSAMPLE + dy) * frame.yRowStride + tx * DOWNSAMPLE;
+          for (int dx = 0; dx < DOWNSAMPLE; ++dx) {
+            sum += frame.y[row + dx] & 0xff;
+          }
+        }
+        current[ty * w + tx] = (byte) (sum / area);
+      }
+    }
+    updateMotion();
+  }
+
+  /** True once two frames of the same size have been seen. */
+  public boolean isReady() {
+    return hasPrevious;
+  }
+
+  /** Median shift of a grid of blocks over the last two frames, in frame pixels. */
+  public float getMotion() {
+    return motion;
+  }
+
+  /**
+   * Estimates the shift of the region from the previous frame to the current one, in frame
+   * pixels, into {@code outShift}. Returns the mean absolute difference per thumbnail pixel at
+   * that shift, from 0 to 255, or -1 if there is no previous frame or the region is outside it.
+   */
+  public float match(
+      final float left, final float top, final float right, final float bottom, final float[] outShift) {
+    outShift[0] = 0;
+    outShift[1] = 0;
+    if (!hasPrevious) {
+      return -1;
+    }
+    final int blockW = clamp(Math.round((right - left) / DOWNSAMPLE / 2), MIN_BLOCK, MAX_BLOCK);
+    final int blockH = clamp(Math.round((bottom - top) / DOWNSAMPLE / 2), MIN_BLOCK, MAX_BLOCK);
+    final int x0 = Math.round((left + right) / 2 / DOWNSAMPLE) - blockW / 2;
+    final int y0 = Math.round((top + bottom) / 2 / DOWNSAMPLE) - blockH / 2;
+    if (x0 < 0 || y0 < 0 || x0 + blockW > width || y0 + blockH > height) {
+      return -1;
+    }
+
+    int bestSad = sad(x0, y0, 0, 0, blockW, blockH, Integer.MAX_VALUE);
+    int bestDx = 0;
+    int bestDy = 0;
+    for (int dy = -SEARCH_RADIUS; dy <= SEARCH_RADIUS; ++dy) {
+      if (y0 + dy < 0 || y0 + dy + blockH > height) {
+        continue;
+      }
+      for (int dx = -SEARCH_RADIUS; dx <= SEARCH_RADIUS; ++dx) {
+        if ((dx == 0 && dy == 0) || x0 + dx < 0 || x0 + dx + blockW > width) {
+          continue;
+        }
+        // Strictly better only, so that flat regions stay put.
+        final int s = sad(x0, y0, dx, dy, blockW, blockH, bestSad);
+        if (s < bestSad) {
+          bestSad = s;
+          bestDx = dx;
+          bestDy = dy;
+        }
+      }
+    }
+    outShift[0] = bestDx * DOWNSAMPLE;
+    outShift[1] = bestDy * DOWNSAMPLE;
+    return (float) bestSad / (blockW * blockH);
+  }
+
+  // Sum of absolute differences between the block at (x0, y0) in the previous frame and the one
+  // shifted by (dx, dy) in the current frame, abandoned once it reaches bound.
+  private int sad(
+      final int x0, final int y0, final int dx, final int dy, final int blockW, final int blockH,
+      final int bound) {
+    int sum = 0;
+    for (int y = 0; y < blockH; ++y) {
+      final int p = (y0 + y) * width + x0;
+      final int c = (y0 + dy + y) * width + x0 + dx;
+      for (int x = 0; x < blockW; ++x) {
+        sum += Math.abs((previous[p + x] & 0xff) - (current[c + x] & 0xff));
+      }
+      if (sum >= bound) {
+        return sum;
+      }
+    }
+    return sum;
+  }
+
+  private void updateMotion() {
+    if (!hasPrevious) {
+      motion = 0;
+      return;
+    }
+    final float cellW = (float) width * DOWNSAMPLE / GRID;
+    final float cellH = (float) height * DOWNSAMPLE / GRID;
+    int n = 0;
+    for (int gy = 0; gy < GRID; ++gy) {
+      for (int gx = 0; gx < GRID; ++gx) {
+        final float left = gx * cellW;
+        final float top = gy * cellH;
+        if (match(left, top, left + cellW, top + cellH, shift) >= 0) {
+          gridMotion[n++] = (float) Math.hypot(shift[0], shift[1]);
+        }
+      }
+    }
+    if (n == 0) {
+      motion = 0;
+      return;
+    }
+    Arrays.sort(gridMotion, 0, n);
+    motion = gridMotion[n / 2];
+  }
+
+  private static int clamp(final int value, final int min, final int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+}
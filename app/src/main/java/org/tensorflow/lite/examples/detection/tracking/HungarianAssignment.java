@@ -0,0 +1,115 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Minimum-cost assignment of rows to columns with the Hungarian algorithm, in its O(n^2 m)
+ * shortest augmenting path form with row and column potentials. The cost matrix is a row-major
+ * float array and the scratch arrays are kept between calls, so a steady-state solve does not
+ * allocate. Not thread-safe.
+ */
+public final class HungarianAssignment {
+  private double[] u = new double[0];
+  private double[] v = new double[0];
+  private double[] minv = new double[0];
+  private int[] p = new int[0];
+  private int[] way = new int[0];
+  private boolean[] used = new boolean[0];
+  private float[] transposed = new float[0];
+
+  /**
+   * Assigns each row of the {@code rows} x {@code cols} matrix {@code cost} to a distinct column
+   * so that the total cost is minimal, and writes the column of each row to {@code rowToCol}, or
+   * -1 for rows left over when there are more rows than columns.
+   */
+  public void solve(final float[] cost, final int rows, final int cols, final int[] rowToCol) {
+    Arrays.fill(rowToCol, 0, rows, -1);
+    if (rows == 0 || cols == 0) {
+      return;
+    }
+    if (rows <= cols) {
+      solveWide(cost, rows, cols);
+      for (int j = 1; j <= cols; ++j) {
+        if (p[j] != 0) {
+          rowToCol[p[j] - 1] = j - 1;
+        }
+      }
+      return;
+    }
+    // Every column gets a row: solve the transposed matrix.
+    if (transposed.length < rows * cols) {
+      transposed = new float[rows * cols];
+    }
+    for (int i = 0; i < rows; ++i) {
+      for (int j = 0; j < cols; ++j) {
+        transposed[j * rows + i] = cost[i * cols + j];
+      }
+    }
+    solveWide(transposed, cols, rows);
+    for (int i = 1; i <= rows; ++i) {
+      if (p[i] != 0) {
+        rowToCol[i - 1] = p[i] - 1;
+      }
+    }
+  }
+
+  // Solves an n x m matrix with n <= m; p[j] is then the 1-based row assigned to column j.
+  private void solveWide(final float[] a, final int n, final int m) {
+    ensureCapacity(n, m);
+    Arrays.fill(u, 0, n + 1, 0);
+    Arrays.fill(v, 0, m + 1, 0);
+    Arrays.fill(p, 0, m + 1, 0);
+    for (int i = 1; i <= n; ++i) {
+      p[0] = i;
+      int j0 = 0;
+      Arrays.fill(minv, 0, m + 1, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, 0, m + 1, false);
+      do {
+        used[j0] = true;
+        final int i0 = p[j0];
+        double delta = Double.POSITIVE_INFINITY;
+        int j1 = 0;
+        for (int j = 1; j <= m; ++j) {
+          if (!used[j]) {
+            final double cur = a[(i0 - 1) * m + j - 1] - u[i0] - v[j];
+            if (cur < minv[j]) {
+              minv[j] = cur;
+              way[j] = j0;
+            }
+            if (minv[j] < delta) {
+              delta = minv[j];
+              j1 = j;
+            }
+          }
+        }
+        for (int j = 0; j <= m; ++j) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      do {
+        final int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+  }
+
+  private void ensureCapacity(final int n, final int m) {
+    if (u.length < n + 1) {
+      u = new double[n + 1];
+    }
+    if (v.length < m + 1) {
+      v = new double[m + 1];
+      minv = new double[m + 1];
+      p = new int[m + 1];
+      way = new int[m + 1];
+      used = new boolean[m + 1];
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Constant-velocity Kalman filter over a box, as its centre, width and height each with a
+ * velocity. The four coordinates are filtered independently with 2x2 covariances, which is what
+ * the full filter reduces to with diagonal noise, and the noise scales with the box height so that
+ * near and distant boxes are smoothed alike. Times are in frames.
+ */
+final class KalmanBoxFilter {
+  // Standard deviations relative to the box height.
+  private static final float STD_MEASUREMENT = 1 / 20f;
+  private static final float STD_INITIAL_VELOCITY = 1 / 8f;
+  private static final float STD_ACCELERATION = 1 / 80f;
+  private static final float MIN_SIDE = 1;
+
+  private static final int CX = 0;
+  private static final int CY = 1;
+  private static final int W = 2;
+  private static final int H = 3;
+
+  private final float[] x = new float[4];
+  private final float[] v = new float[4];
+  // Covariances of position, position and velocity, and velocity, per coordinate.
+  private final float[] p00 = new float[4];
+  private final float[] p01 = new float[4];
+  private final float[] p11 = new float[4];
+
+  KalmanBoxFilter(final float left, final float top, final float right, final float bottom) {
+    x[CX] = (left + right) / 2;
+    x[CY] = (top + bottom) / 2;
+    x[W] = right - left;
+    x[H] = bottom - top;
+    final float r = square(STD_MEASUREMENT * height());
+    final float q = square(STD_INITIAL_VELOCITY * height());
+    for (int i = 0; i < 4; ++i) {
+      p00[i] = r;
+      p11[i] = q;
+    }
+  }
+
+  /** Advances the state by {@code dt} frames. */
+  void predict(final float dt) {
+    final float q = square(STD_ACCELERATION * height());
+    final float dt2 = dt * dt;
+    for (int i = 0; i < 4; ++i) {
+      x[i] += v[i] * dt;
+      p00[i] += dt * (2 * p01[i] + dt * p11[i]) + q * dt2 * dt2 / 4;
+      p01[i] += dt * p11[i] + q * dt2 * dt / 2;
+      p11[i] += q * dt2;
+    }
+    x[W] = Math.max(MIN_SIDE, x[W]);
+    x[H] = Math.max(MIN_SIDE, x[H]);
+  }
+
+  /** Corrects the state with a detected box. */
+  void update(final float left, final float top, final float right, final float bottom) {
+    final float r = square(STD_MEASUREMENT * height());
+    correct(CX, (left + right) / 2, r);
+    correct(CY, (top + bottom) / 2, r);
+    correct(W, right - left, r);
+    correct(H, bottom - top, r);
+  }
+
+  /**
+   * Corrects the centre alone with a measurement {@code noiseScale} times less certain than a
+   * detection, such as a block match.
+   */
+  void updateCenter(final float cx, final float cy, final float noiseScale) {
+    final float r = square(noiseScale * STD_MEASUREMENT * height());
+    correct(CX, cx, r);
+    correct(CY, cy, r);
+  }
+
+  private void correct(final int i, final float z, final float r) {
+    final float s = p00[i] + r;
+    final float k0 = p00[i] / s;
+    final float k1 = p01[i] / s;
+    final float y = z - x[i];
+    x[i] += k0 * y;
+    v[i] += k1 * y;
+    p11[i] -= k1 * p01[i];
+    p01[i] *= 1 - k0;
+    p00[i] *= 1 - k0;
+    if (i >= W) {
+      x[i] = Math.max(MIN_SIDE, x[i]);
+    }
+  }
+
+  float centerX() {
+    return x[CX];
+  }
+
+  float centerY() {
+    return x[CY];
+  }
+
+  float width() {
+    return x[W];
+  }
+
+  float height() {
+    return x[H];
+  }
+
+  private static float square(final float value) {
+    return value * value;
+  }
+}
@@ -27,18 +27,42 @@ import android.graphics.RectF;
 import android.text.TextUtils;
 import android.util.Pair;
 import android.util.TypedValue;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
 import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * A tracker that matches existing objects to new detections with a {@link SortTracker}, which
+ * gives every object a stable id and keeps predicting its box through frames without detections.
+ *
+ * <p>Between detections, {@link #onFrame} moves the tracked boxes with a {@link BlockMatcher}, so
+ * the detector only has to run on keyframes: every few frames, fewer when the scene moves fast,
+ * and as soon as a tracked box is lost or matches poorly. See {@link #shouldDetect()}.
+ */
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 18;
   private static final float MIN_SIZE = 16.0f;
+  // Keyframe interval bounds, in frames.
+  private static final int MAX_KEYFRAME_INTERVAL = 8;
+  // Drift in frame pixels allowed between keyframes; the interval is this over the scene motion.
+  private static final float KEYFRAME_MOTION_TOLERANCE = 48.0f;
+  // Weight of the newest frame in the smoothed scene motion.
+  private static final float MOTION_SMOOTHING = 0.3f;
+  // Mean absolute difference per thumbnail pixel at which a propagated box has no confidence left.
+  private static final float MATCH_ERROR_SCALE = 40.0f;
+  // Tracking confidence under which the detector is run again.
+  private static final float MIN_TRACKING_CONFIDENCE = 0.5f;
+  // Detections before a track is shown, and detection rounds a shown track survives unmatched.
+  private static final int MIN_HITS = 2;
+  private static final int MAX_MISSES = 3;
+  private static final float MIN_IOU = 0.3f;
+  // A block match is this many times less certain than a detection of the same box.
+  private static final float BLOCK_MATCH_NOISE = 2.0f;
   private static final int[] COLORS = {
           Color.BLUE,
           Color.RED,
@@ -58,8 +82,9 @@ public class MultiBoxTracker {
   };
   final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
   private final Logger logger = new Logger();
-  private final Queue<Integer> availableColors = new LinkedList<Integer>();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
+  private final SortTracker sortTracker = new SortTracker(MIN_HITS, MAX_MISSES, MIN_IOU);
+  // Frame the tracks are predicted up to.
+  private long predictedTimestamp;
   private final Paint boxPaint = new Paint();
   private final float textSizePx;
   private final BorderedText borderedText;
@@ -67,12 +92,16 @@ public class MultiBoxTracker {
   private int frameWidth;
   private int frameHeight;
   private int sensorOrientation;
+  private final BlockMatcher blockMatcher = new BlockMatcher();
+  private final float[] shift = new float[2];
+  private final float[] box = new float[4];
+  // Block-matched centre per track, or NaN when the match failed.
+  private float[] matchedCenters = new float[0];
+  private float sceneMotion;
+  private int framesSinceDetection;
+  private boolean trackingDegraded;
 
   public MultiBoxTracker(final Context context) {
-    for (final int color : COLORS) {
-      availableColors.add(color);
-    }
-
     boxPaint.setColor(Color.RED);
     boxPaint.setStyle(Style.STROKE);
     boxPaint.setStrokeWidth(10.0f);
@@ -113,9 +142,128 @@ public class MultiBoxTracker {
 
   public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
     logger.i("Processing %d results from %d", results.size(), timestamp);
+    predictTo(timestamp);
     processResults(results);
   }
 
+  /**
+   * Moves the tracked boxes to where they are in {@code frame}, which must follow the frame
+   * passed last, by their Kalman prediction corrected with a block match. A box that leaves the
+   * frame or matches poorly loses confidence, which makes {@link #shouldDetect()} true.
+   */
+  public synchronized void onFrame(final YuvFrame frame, final long timestamp) {
+    blockMatcher.update(frame);
+    ++framesSinceDetection;
+    if (!blockMatcher.isReady()) {
+      predictTo(timestamp);
+      trackingDegraded = true;
+      return;
+    }
+    sceneMotion += MOTION_SMOOTHING * (blockMatcher.getMotion() - sceneMotion);
+
+    // Match the boxes where they were in the previous frame, then predict and correct.
+    final List<SortTracker.Track> tracks = sortTracker.getTracks();
+    if (matchedCenters.length < tracks.size() * 2) {
+      matchedCenters = new float[tracks.size() * 2];
+    }
+    for (int i = 0; i < tracks.size(); ++i) {
+      final SortTracker.Track track = tracks.get(i);
+      track.getBox(box);
+      final float error = blockMatcher.match(box[0], box[1], box[2], box[3], shift);
+      if (error < 0) {
+        logger.v("Lost track of %s #%d", track.title, track.id);
+        matchedCenters[i * 2] = Float.NaN;
+        track.trackingConfidence = 0;
+        trackingDegraded |= track.isConfirmed();
+        continue;
+      }
+      matchedCenters[i * 2] = (box[0] + box[2]) / 2 + shift[0];
+      matchedCenters[i * 2 + 1] = (box[1] + box[3]) / 2 + shift[1];
+      final float quality = Math.max(0, 1 - error / MATCH_ERROR_SCALE);
+      track.trackingConfidence =
+          Math.min(track.trackingConfidence, track.detectionConfidence * quality);
+      if (track.isConfirmed() && track.trackingConfidence < MIN_TRACKING_CONFIDENCE) {
+        trackingDegraded = true;
+      }
+    }
+    predictTo(timestamp);
+    for (int i = 0; i < tracks.size(); ++i) {
+      if (!Float.isNaN(matchedCenters[i * 2])) {
+        tracks.get(i).correctCenter(
+            matchedCenters[i * 2], matchedCenters[i * 2 + 1], BLOCK_MATCH_NOISE);
+      }
+    }
+  }
+
+  /**
+   * Confirmed tracks as recognitions in frame coordinates, with the track id as recognition id,
+   * so that the same object keeps its id from frame to frame.
+   */
+  public synchronized List<Recognition> getTrackedRecognitions() {
+    final List<Recognition> recognitions = new ArrayList<Recognition>();
+    for (final SortTracker.Track track : sortTracker.getTracks()) {
+      if (!track.isConfirmed()) {
+        continue;
+      }
+      track.getBox(box);
+      recognitions.add(
+          new Recognition(
+              String.valueOf(track.id),
+              track.title,
+              track.detectionConfidence,
+              new RectF(box[0], box[1], box[2], box[3]),
+              track.detectedClass));
+    }
+    return recognitions;
+  }
+
+  // Advances the tracks to the frame of timestamp, which counts frames. Detections that arrive
+  // after a later frame was tracked update the tracks where they are.
+  private void predictTo(final long timestamp) {
+    if (timestamp > predictedTimestamp) {
+      if (predictedTimestamp > 0) {
+        sortTracker.predict(timestamp - predictedTimestamp);
+      }
+      predictedTimestamp = timestamp;
+    }
+  }
+
+  /**
+   * True if the detector should run on the current frame: the keyframe interval has passed, or a
+   * tracked box was lost or lost confidence since the last detection.
+   */
+  public synchronized boolean shouldDetect() {
+    return trackingDegraded || framesSinceDetection >= getKeyframeInterval();
+  }
+
+  /**
+   * True if a tracked box was lost or lost confidence, or a new one awaits confirmation, since the
+   * last detection.
+   */
+  public synchronized boolean isTrackingDegraded() {
+    return trackingDegraded;
+  }
+
+  /** Starts a new keyframe interval; call when a detection is started on the current frame. */
+  public synchronized void onDetectionStarted() {
+    framesSinceDetection = 0;
+    trackingDegraded = false;
+  }
+
+  /** Asks for a detection on the next frame; call when a started detection gave no result. */
+  public synchronized void onDetectionFailed() {
+    trackingDegraded = true;
+  }
+
+  /**
+   * Frames between detections for the measured scene motion: {@value #MAX_KEYFRAME_INTERVAL} for
+   * a still scene, down to every frame.
+   */
+  public synchronized int getKeyframeInterval() {
+    final int interval = Math.round(KEYFRAME_MOTION_TOLERANCE / (sceneMotion + 1));
+    return Math.max(1, Math.min(MAX_KEYFRAME_INTERVAL, interval));
+  }
+
   private Matrix getFrameToCanvasMatrix() {
     return frameToCanvasMatrix;
   }
@@ -134,19 +282,23 @@ public class MultiBoxTracker {
                     (int) (multiplier * (rotated ? frameWidth : frameHeight)),
                     sensorOrientation,
                     false);
-    for (final TrackedRecognition recognition : trackedObjects) {
-      final RectF trackedPos = new RectF(recognition.location);
+    for (final SortTracker.Track track : sortTracker.getTracks()) {
+      if (!track.isConfirmed()) {
+        continue;
+      }
+      track.getBox(box);
+      final RectF trackedPos = new RectF(box[0], box[1], box[2], box[3]);
 
       getFrameToCanvasMatrix().mapRect(trackedPos);
-      boxPaint.setColor(recognition.color);
+      boxPaint.setColor(COLORS[track.id % COLORS.length]);
 
       float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
       canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
 
       final String labelString =
-              !TextUtils.isEmpty(recognition.title)
-                      ? String.format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-                      : String.format("%.2f", (100 * recognition.detectionConfidence));
+              !TextUtils.isEmpty(track.title)
+                      ? String.format("%s %.2f", track.title, (100 * track.detectionConfidence))
+                      : String.format("%.2f", (100 * track.detectionConfidence));
       //            borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.top,
       // labelString);
       borderedText.drawText(
@@ -155,7 +307,7 @@ public class MultiBoxTracker {
   }
 
   private void processResults(final List<Recognition> results) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
+    final List<Pair<Float, Recognition>> rectsToTrack = new ArrayList<Pair<Float, Recognition>>();
 
     screenRects.clear();
     final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
@@ -182,31 +334,26 @@ public class MultiBoxTracker {
       rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
     }
 
-    trackedObjects.clear();
-    if (rectsToTrack.isEmpty()) {
-      logger.v("Nothing to track, aborting.");
-      return;
+    final int count = rectsToTrack.size();
+    final float[] boxes = new float[count * 4];
+    final int[] classes = new int[count];
+    final float[] scores = new float[count];
+    for (int i = 0; i < count; ++i) {
+      final Recognition recognition = rectsToTrack.get(i).second;
+      final RectF location = recognition.getLocation();
+      boxes[i * 4] = location.left;
+      boxes[i * 4 + 1] = location.top;
+      boxes[i * 4 + 2] = location.right;
+      boxes[i * 4 + 3] = location.bottom;
+      classes[i] = recognition.getDetectedClass();
+      scores[i] = rectsToTrack.get(i).first;
     }
 
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
-//      trackedRecognition.color = COLORS[trackedObjects.size() % COLORS.length];
-      trackedRecognition.color = COLORS[potential.second.getDetectedClass() % COLORS.length];
-      trackedObjects.add(trackedRecognition);
-
-//      if (trackedObjects.size() >= COLORS.length) {
-//        break;
-//      }
+    final SortTracker.Track[] assigned = sortTracker.update(count, boxes, classes, scores);
+    for (int i = 0; i < count; ++i) {
+      assigned[i].title = rectsToTrack.get(i).second.getTitle();
+      // A new object is detected again soon, so that it is confirmed or dropped quickly.
+      trackingDegraded |= !assigned[i].isConfirmed();
     }
   }
-
-  private static class TrackedRecognition {
-    RectF location;
-    float detectionConfidence;
-    int color;
-    String title;
-  }
 }
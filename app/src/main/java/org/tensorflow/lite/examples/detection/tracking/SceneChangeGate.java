@@ -0,0 +1,109 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/**
+ * Tells whether the scene changed since the frame the detector last ran on, so that the last
+ * result can be reused for a static scene. The signature of a frame is a {@value #THUMBNAIL_SIZE}
+ * x {@value #THUMBNAIL_SIZE} thumbnail of the Y plane, each pixel the mean of at most
+ * {@value #SAMPLES} x {@value #SAMPLES} samples of its cell, and the change is the mean absolute
+ * difference between two thumbnails. Comparing with the detected frame rather than the previous
+ * one keeps slow drift from going unnoticed. A result is reused for at most {@code maxReuseAge}
+ * frames in a row.
+ */
+public final class SceneChangeGate {
+  public static final int THUMBNAIL_SIZE = 32;
+  // Samples per cell side; a 1280 px wide frame has 40 px cells, sampled every 10 px.
+  private static final int SAMPLES = 4;
+
+  private final float threshold;
+  private final int maxReuseAge;
+  private byte[] reference = new byte[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+  private byte[] current = new byte[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+  private boolean hasReference;
+  private float change;
+  private int reuseAge;
+  private long skippedFrames;
+  private long checkedFrames;
+  private long lastCheckNanos;
+  private long totalCheckNanos;
+
+  /**
+   * @param threshold mean absolute luma difference per thumbnail pixel, from 0 to 255, under
+   *     which the scene counts as unchanged
+   * @param maxReuseAge frames a result may be reused in a row before the detector must run
+   */
+  public SceneChangeGate(final float threshold, final int maxReuseAge) {
+    this.threshold = threshold;
+    this.maxReuseAge = maxReuseAge;
+  }
+
+  /**
+   * Takes the signature of {@code frame} and returns true if the last result may be reused for
+   * it. Call {@link #onFrameSkipped()} if it is, or {@link #onDetectionStarted()} once the
+   * detector runs on it.
+   */
+  public synchronized boolean isUnchanged(final YuvFrame frame) {
+    final long start = System.nanoTime();
+    frame.lumaThumbnail(0, 0, frame.width, frame.height, THUMBNAIL_SIZE, SAMPLES, current, 0);
+    change =
+        hasReference
+            ? YuvFrame.meanAbsDifference(reference, 0, current, 0, current.length)
+            : Float.POSITIVE_INFINITY;
+    lastCheckNanos = System.nanoTime() - start;
+    totalCheckNanos += lastCheckNanos;
+    ++checkedFrames;
+    return change < threshold && reuseAge < maxReuseAge;
+  }
+
+  /** Counts the checked frame as one that reused the last result. */
+  public synchronized void onFrameSkipped() {
+    ++reuseAge;
+    ++skippedFrames;
+  }
+
+  /** Makes the checked frame the one later frames are compared with. */
+  public synchronized void onDetectionStarted() {
+    final byte[] swap = reference;
+    reference = current;
+    current = swap;
+    hasReference = true;
+    reuseAge = 0;
+  }
+
+  /**
+   * Forgets the frame passed to the last {@link #onDetectionStarted()}, whose detection gave no
+   * result to reuse, so that the next frame is detected.
+   */
+  public synchronized void onDetectionFailed() {
+    hasReference = false;
+  }
+
+  /** Mean absolute difference of the last checked frame, or infinity if it had no reference. */
+  public synchronized float getChange() {
+    return change;
+  }
+
+  /** Frames the current result has been reused for. */
+  public synchronized int getReuseAge() {
+    return reuseAge;
+  }
+
+  public synchronized long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  public synchronized long getCheckedFrames() {
+    return checkedFrames;
+  }
+
+  /** Time the last check took. */
+  public synchronized long getLastCheckNanos() {
+    return lastCheckNanos;
+  }
+
+  /** Mean time of a check. */
+  public synchronized long getMeanCheckNanos() {
+    return checkedFrames == 0 ? 0 : totalCheckNanos / checkedFrames;
+  }
+}
@@ -0,0 +1,188 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SORT-style multi-object tracker: every track has a constant-velocity {@link KalmanBoxFilter},
+ * and each round of detections is assigned to the predicted tracks by minimum total 1 - IoU with
+ * the Hungarian algorithm. Tracks only match detections of their own class and with at least
+ * {@code minIou} overlap.
+ *
+ * <p>Births and deaths have hysteresis: a track is confirmed after {@code minHits} detections, a
+ * tentative track dies on its first miss and a confirmed one after more than {@code maxMisses}
+ * rounds without a detection, meanwhile following its prediction. Track ids are never reused.
+ * Not thread-safe.
+ */
+public final class SortTracker {
+  // Cost of pairs that must not match; any real pair costs at most 1.
+  private static final float NO_MATCH = 2;
+
+  private final int minHits;
+  private final int maxMisses;
+  private final float minIou;
+  private final List<Track> tracks = new ArrayList<Track>();
+  private final List<Track> unmodifiableTracks = Collections.unmodifiableList(tracks);
+  private final HungarianAssignment hungarian = new HungarianAssignment();
+  private float[] cost = new float[0];
+  private int[] trackToDetection = new int[0];
+  private final float[] box = new float[4];
+  private int nextId = 1;
+
+  /** One tracked object. Its box is the filter state, predicted up to the latest frame. */
+  public static final class Track {
+    public final int id;
+    public final int detectedClass;
+    /** Title of the detections, for the caller to fill in. */
+    public String title;
+    /** Confidence of the latest detection. */
+    public float detectionConfidence;
+    /** Confidence of the box since the latest detection, for the caller to lower. */
+    public float trackingConfidence;
+    private final KalmanBoxFilter filter;
+    private int hits;
+    private int misses;
+    private boolean confirmed;
+
+    private Track(final int id, final int detectedClass, final KalmanBoxFilter filter) {
+      this.id = id;
+      this.detectedClass = detectedClass;
+      this.filter = filter;
+    }
+
+    /** True once the track has been detected often enough to be shown. */
+    public boolean isConfirmed() {
+      return confirmed;
+    }
+
+    /** Rounds of detections since this track was last detected. */
+    public int getMisses() {
+      return misses;
+    }
+
+    /** Writes the box as left, top, right and bottom into {@code out}. */
+    public void getBox(final float[] out) {
+      final float halfW = filter.width() / 2;
+      final float halfH = filter.height() / 2;
+      out[0] = filter.centerX() - halfW;
+      out[1] = filter.centerY() - halfH;
+      out[2] = filter.centerX() + halfW;
+      out[3] = filter.centerY() + halfH;
+    }
+
+    /**
+     * Corrects the centre with a measurement {@code noiseScale} times less certain than a
+     * detection, such as a block match.
+     */
+    public void correctCenter(final float cx, final float cy, final float noiseScale) {
+      filter.updateCenter(cx, cy, noiseScale);
+    }
+  }
+
+  public SortTracker(final int minHits, final int maxMisses, final float minIou) {
+    this.minHits = minHits;
+    this.maxMisses = maxMisses;
+    this.minIou = minIou;
+  }
+
+  /** Live tracks, confirmed or not, in order of birth. */
+  public List<Track> getTracks() {
+    return unmodifiableTracks;
+  }
+
+  /** Advances every track by {@code frames} frames. */
+  public void predict(final float frames) {
+    for (final Track track : tracks) {
+      track.filter.predict(frames);
+    }
+  }
+
+  /**
+   * Assigns one round of {@code count} detections to the tracks, which must have been predicted
+   * up to the frame of the detections. {@code boxes} holds left, top, right and bottom per
+   * detection. Returns the track each detection updated or started.
+   */
+  public Track[] update(
+      final int count, final float[] boxes, final int[] classes, final float[] scores) {
+    final int rows = tracks.size();
+    if (cost.length < rows * count) {
+      cost = new float[rows * count];
+    }
+    if (trackToDetection.length < rows) {
+      trackToDetection = new int[rows];
+    }
+    for (int i = 0; i < rows; ++i) {
+      final Track track = tracks.get(i);
+      track.getBox(box);
+      for (int j = 0; j < count; ++j) {
+        final float iou = classes[j] == track.detectedClass ? iou(box, boxes, j * 4) : 0;
+        cost[i * count + j] = iou >= minIou ? 1 - iou : NO_MATCH;
+      }
+    }
+    hungarian.solve(cost, rows, count, trackToDetection);
+
+    final Track[] assigned = new Track[count];
+    for (int i = 0; i < rows; ++i) {
+      final Track track = tracks.get(i);
+      final int j = trackToDetection[i];
+      if (j < 0 || cost[i * count + j] >= NO_MATCH) {
+        ++track.misses;
+        continue;
+      }
+      track.filter.update(boxes[j * 4], boxes[j * 4 + 1], boxes[j * 4 + 2], boxes[j * 4 + 3]);
+      track.detectionConfidence = scores[j];
+      track.trackingConfidence = scores[j];
+      track.misses = 0;
+      if (++track.hits >= minHits) {
+        track.confirmed = true;
+      }
+      assigned[j] = track;
+    }
+
+    for (final Iterator<Track> it = tracks.iterator(); it.hasNext(); ) {
+      final Track track = it.next();
+      if (track.misses > (track.confirmed ? maxMisses : 0)) {
+        it.remove();
+      }
+    }
+
+    for (int j = 0; j < count; ++j) {
+      if (assigned[j] != null) {
+        continue;
+      }
+      final Track track =
+          new Track(
+              nextId++,
+              classes[j],
+              new KalmanBoxFilter(boxes[j * 4], boxes[j * 4 + 1], boxes[j * 4 + 2], boxes[j * 4 + 3]));
+      track.detectionConfidence = scores[j];
+      track.trackingConfidence = scores[j];
+      track.hits = 1;
+      track.confirmed = minHits <= 1;
+      tracks.add(track);
+      assigned[j] = track;
+    }
+    return assigned;
+  }
+
+  /** Removes every track. Ids keep counting up. */
+  public void clear() {
+    tracks.clear();
+  }
+
+  private static float iou(final float[] a, final float[] boxes, final int offset) {
+    final float left = Math.max(a[0], boxes[offset]);
+    final float top = Math.max(a[1], boxes[offset + 1]);
+    final float right = Math.min(a[2], boxes[offset + 2]);
+    final float bottom = Math.min(a[3], boxes[offset + 3]);
+    if (right <= left || bottom <= top) {
+      return 0;
+    }
+    final float intersection = (right - left) * (bottom - top);
+    final float areaA = (a[2] - a[0]) * (a[3] - a[1]);
+    final float areaB = (boxes[offset + 2] - boxes[offset]) * (boxes[offset + 3] - boxes[offset + 1]);
+    return intersection / (areaA + areaB - intersection);
+  }
+}
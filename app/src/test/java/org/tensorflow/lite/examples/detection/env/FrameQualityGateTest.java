@@ -0,0 +1,75 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** JVM test for the blur and exposure decisions of {@link FrameQualityGate}. */
+public class FrameQualityGateTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  @Test
+  public void acceptsSharpFramesAndRejectsBlurredOne() {
+    final FrameQualityGate gate = new FrameQualityGate(0.5f, 0.6f, 10);
+    for (int i = 0; i < 20; ++i) {
+      assertTrue(gate.accept(frame(i, 0, 128)));
+    }
+    assertFalse(gate.accept(frame(20, 12, 128)));
+    assertEquals(1, gate.getBlurredFrames());
+    assertTrue(gate.getSharpness() < 0.5f * gate.getMeanSharpness());
+  }
+
+  @Test
+  public void acceptsAnythingWhileWarmingUp() {
+    final FrameQualityGate gate = new FrameQualityGate(0.5f, 0.6f, 10);
+    assertTrue(gate.accept(frame(0, 0, 128)));
+    assertTrue(gate.accept(frame(1, 12, 128)));
+  }
+
+  @Test
+  public void rejectsClippedFrame() {
+    final FrameQualityGate gate = new FrameQualityGate(0.5f, 0.6f, 10);
+    assertFalse(gate.accept(frame(0, 0, 255)));
+    assertTrue(gate.getClippedFraction() > 0.6f);
+    assertEquals(1, gate.getBadlyExposedFrames());
+  }
+
+  @Test
+  public void acceptsAfterTooManyRejectionsInRow() {
+    final FrameQualityGate gate = new FrameQualityGate(0.5f, 0.6f, 3);
+    for (int i = 0; i < 3; ++i) {
+      assertFalse(gate.accept(frame(i, 0, 2)));
+    }
+    assertTrue(gate.accept(frame(3, 0, 2)));
+    assertFalse(gate.accept(frame(4, 0, 2)));
+  }
+
+  // Random texture around level, smeared horizontally over blur pixels like motion blur.
+  private static YuvFrame frame(final int seed, final int blur, final int level) {
+    final Random random = new Random(seed);
+    final int[] texture = new int[WIDTH * HEIGHT];
+    for (int i = 0; i < texture.length; ++i) {
+      texture[i] = Math.max(0, Math.min(255, level + random.nextInt(41) - 20));
+    }
+    final byte[] y = new byte[WIDTH * HEIGHT];
+    for (int row = 0; row < HEIGHT; ++row) {
+      for (int x = 0; x < WIDTH; ++x) {
+        int sum = 0;
+        int n = 0;
+        for (int dx = 0; dx <= blur && x + dx < WIDTH; ++dx) {
+          sum += texture[row * WIDTH + x + dx];
+          ++n;
+        }
+        y[row * WIDTH + x] = (byte) (sum / n);
+      }
+    }
+    final YuvFrame frame = new YuvFrame();
+    frame.setPlanar(y, new byte[0], new byte[0], WIDTH, HEIGHT, WIDTH, 0, 0);
+    return frame;
+  }
+}
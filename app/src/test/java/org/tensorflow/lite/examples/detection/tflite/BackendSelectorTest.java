@@ -0,0 +1,102 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * JVM test for the choice {@link BackendSelector} makes between backends, with a fake probe in
+ * place of the interpreter.
+ */
+public class BackendSelectorTest {
+
+  private static final List<Backend> ALL = Arrays.asList(Backend.values());
+
+  @Test
+  public void picksFastestBackend() {
+    final FakeProbe probe =
+        new FakeProbe().latency(Backend.CPU, 40).latency(Backend.XNNPACK, 25)
+            .latency(Backend.NNAPI, 30).latency(Backend.GPU, 12);
+    final BackendSelector.Result result = BackendSelector.benchmark(probe, ALL);
+    assertEquals(Backend.GPU, result.backend);
+    assertEquals(12_000_000L, result.nanos);
+    assertEquals(Backend.GPU, probe.current);
+  }
+
+  @Test
+  public void skipsDelegatesThatFailToInitializeOrRun() {
+    final FakeProbe probe =
+        new FakeProbe().latency(Backend.CPU, 40).latency(Backend.XNNPACK, 25)
+            .failToInitialize(Backend.GPU).failToRun(Backend.NNAPI);
+    final BackendSelector.Result result = BackendSelector.benchmark(probe, ALL);
+    assertEquals(Backend.XNNPACK, result.backend);
+    assertEquals(Backend.XNNPACK, probe.current);
+  }
+
+  @Test
+  public void hostWithoutAcceleratorsTakesCpuPath() {
+    final List<Backend> available = BackendSelector.availableBackends();
+    assertEquals(Backend.CPU, available.get(0));
+    assertTrue(available.contains(Backend.XNNPACK));
+
+    final FakeProbe probe = new FakeProbe().latency(Backend.CPU, 40).latency(Backend.XNNPACK, 25);
+    for (final Backend backend : available) {
+      if (backend != Backend.CPU && backend != Backend.XNNPACK) {
+        probe.failToInitialize(backend);
+      }
+    }
+    assertEquals(Backend.XNNPACK, BackendSelector.benchmark(probe, available).backend);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsWhenNoBackendWorks() {
+    final FakeProbe probe = new FakeProbe();
+    for (final Backend backend : ALL) {
+      probe.failToInitialize(backend);
+    }
+    BackendSelector.benchmark(probe, ALL);
+  }
+
+  private static final class FakeProbe implements BackendSelector.Probe {
+    private final Map<Backend, Long> nanos = new EnumMap<>(Backend.class);
+    private final Map<Backend, Boolean> failsToRun = new EnumMap<>(Backend.class);
+    Backend current;
+
+    FakeProbe latency(Backend backend, long ms) {
+      nanos.put(backend, ms * 1_000_000L);
+      return this;
+    }
+
+    FakeProbe failToInitialize(Backend backend) {
+      nanos.remove(backend);
+      return this;
+    }
+
+    FakeProbe failToRun(Backend backend) {
+      nanos.put(backend, 0L);
+      failsToRun.put(backend, true);
+      return this;
+    }
+
+    @Override
+    public void use(Backend backend) {
+      if (!nanos.containsKey(backend)) {
+        throw new IllegalArgumentException("Delegate failed to initialize: " + backend);
+      }
+      current = backend;
+    }
+
+    @Override
+    public long time(int runs) {
+      if (failsToRun.containsKey(current)) {
+        throw new IllegalStateException("Delegate failed to run: " + current);
+      }
+      return nanos.get(current);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * JVM test for the top-K limit of {@link CandidateBuffer}: the boxes kept must be those a sort
+ * by score and truncation to the limit would keep.
+ */
+public class CandidateBufferTest {
+
+  @Test
+  public void keepsTopScoresLikeSortAndTruncate() {
+    final Random random = new Random(7);
+    final CandidateBuffer buffer = new CandidateBuffer(64);
+    for (int round = 0; round < 200; ++round) {
+      final int limit = 1 + random.nextInt(64);
+      final int count = random.nextInt(200);
+      // Few distinct levels, so that many scores tie.
+      final float[] scores = new float[count];
+      for (int i = 0; i < count; ++i) {
+        scores[i] = random.nextInt(16) / 16f;
+      }
+      buffer.setLimit(limit);
+      fillAndCheck(buffer, scores);
+    }
+  }
+
+  @Test
+  public void limitLargerThanCountKeepsEveryBox() {
+    final CandidateBuffer buffer = new CandidateBuffer(32);
+    buffer.setLimit(100);
+    assertEquals(32, buffer.getLimit());
+    final float[] scores = {0.5f, 0.1f, 0.9f, 0.5f, 0.3f};
+    fillAndCheck(buffer, scores);
+    assertEquals(scores.length, buffer.size());
+    assertEquals(Float.NEGATIVE_INFINITY, buffer.scoreToBeat(), 0);
+  }
+
+  @Test
+  public void evictsLowestAndRejectsTies() {
+    final CandidateBuffer buffer = new CandidateBuffer(8);
+    buffer.setLimit(3);
+    buffer.add(0, 0, 1, 1, 0.4f, 0);
+    buffer.add(1, 0, 2, 1, 0.6f, 0);
+    assertEquals(Float.NEGATIVE_INFINITY, buffer.scoreToBeat(), 0);
+    buffer.add(2, 0, 3, 1, 0.5f, 0);
+    assertEquals(0.4f, buffer.scoreToBeat(), 0);
+
+    // A tie with the lowest kept score is rejected, a higher score evicts it.
+    assertEquals(-1, buffer.add(3, 0, 4, 1, 0.4f, 0));
+    final int index = buffer.add(4, 0, 5, 1, 0.7f, 2);
+    assertEquals(0, index);
+    assertEquals(4, buffer.left[index], 0);
+    assertEquals(2, buffer.detectedClass[index]);
+    assertEquals(0.5f, buffer.scoreToBeat(), 0);
+    assertEquals(3, buffer.size());
+  }
+
+  @Test
+  public void clearAndSetLimitReuseTheBuffer() {
+    final CandidateBuffer buffer = new CandidateBuffer(16);
+    buffer.setLimit(4);
+    fillAndCheck(buffer, new float[] {0.9f, 0.8f, 0.7f, 0.6f, 0.95f, 0.1f});
+
+    // After clear the old heap must not reject boxes under its lowest score.
+    buffer.clear();
+    assertEquals(0, buffer.size());
+    assertEquals(Float.NEGATIVE_INFINITY, buffer.scoreToBeat(), 0);
+    fillAndCheck(buffer, new float[] {0.1f, 0.2f, 0.05f, 0.3f, 0.25f, 0.15f});
+
+    buffer.setLimit(2);
+    fillAndCheck(buffer, new float[] {0.3f, 0.3f, 0.2f, 0.3f, 0.4f});
+  }
+
+  /**
+   * Adds a box per score to a cleared {@code buffer}, its left edge being its index, and checks
+   * what was kept against the reference.
+   */
+  private static void fillAndCheck(final CandidateBuffer buffer, final float[] scores) {
+    buffer.clear();
+    final int limit = buffer.getLimit();
+    for (int i = 0; i < scores.length; ++i) {
+      final float toBeat = buffer.scoreToBeat();
+      final int index = buffer.add(i, 0, i + 1, 1, scores[i], i % 3);
+      assertEquals("box " + i, scores[i] > toBeat, index >= 0);
+    }
+
+    final float[] expected = topScores(scores, limit);
+    assertEquals(expected.length, buffer.size());
+    final float[] kept = new float[buffer.size()];
+    final Set<Integer> keptBoxes = new HashSet<Integer>();
+    for (int k = 0; k < kept.length; ++k) {
+      // Every slot still holds one whole box.
+      final int box = (int) buffer.left[k];
+      assertTrue(keptBoxes.add(box));
+      assertEquals(box + 1, buffer.right[k], 0);
+      assertEquals(scores[box], buffer.score[k], 0);
+      assertEquals(box % 3, buffer.detectedClass[k]);
+      kept[k] = buffer.score[k];
+    }
+    Arrays.sort(kept);
+    assertArrayEquals(expected, kept, 0);
+    if (kept.length == limit) {
+      assertEquals(kept[0], buffer.scoreToBeat(), 0);
+    }
+  }
+
+  /** The {@code limit} highest of {@code scores}, in ascending order. */
+  private static float[] topScores(final float[] scores, final int limit) {
+    final float[] sorted = scores.clone();
+    Arrays.sort(sorted);
+    final int n = Math.min(limit, sorted.length);
+    return Arrays.copyOfRange(sorted, sorted.length - n, sorted.length);
+  }
+}
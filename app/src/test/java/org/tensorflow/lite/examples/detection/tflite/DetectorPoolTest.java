@@ -0,0 +1,110 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * JVM test for the leasing, overflow policies and counters of {@link DetectorPool}, over
+ * classifiers without an interpreter.
+ */
+public class DetectorPoolTest {
+
+  @Test
+  public void dropPolicyDropsWhenEveryInstanceIsLeased() {
+    final DetectorPool pool = newPool(2, DetectorPool.OverflowPolicy.DROP, 4);
+    final YoloV5Classifier first = pool.lease();
+    final YoloV5Classifier second = pool.lease();
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNull(pool.lease());
+    assertEquals(2, pool.getLeaseCount());
+    assertEquals(0, pool.getQueuedCount());
+    assertEquals(1, pool.getDroppedCount());
+    assertEquals(2, pool.getPeakInUse());
+
+    pool.release(first);
+    assertSame(first, pool.lease());
+    assertEquals(3, pool.getLeaseCount());
+    assertEquals(1, pool.getDroppedCount());
+    pool.close();
+  }
+
+  @Test
+  public void queuePolicyHandsReleasedInstanceToWaiter() throws Exception {
+    final DetectorPool pool = newPool(1, DetectorPool.OverflowPolicy.QUEUE, 1);
+    final YoloV5Classifier leased = pool.lease();
+    final Leaser waiter = startLeaser(pool);
+
+    // The queue holds one frame, so a second one is dropped.
+    assertNull(pool.lease());
+    assertEquals(1, pool.getDroppedCount());
+
+    pool.release(leased);
+    waiter.join();
+    assertSame(leased, waiter.result);
+    assertEquals(2, pool.getLeaseCount());
+    assertEquals(1, pool.getQueuedCount());
+    assertEquals(1, pool.getDroppedCount());
+    assertEquals(1, pool.getPeakInUse());
+    pool.close();
+  }
+
+  @Test
+  public void closeDropsQueuedAndLaterFrames() throws Exception {
+    final DetectorPool pool = newPool(1, DetectorPool.OverflowPolicy.QUEUE, 2);
+    final YoloV5Classifier leased = pool.lease();
+    final Leaser waiter = startLeaser(pool);
+
+    pool.close();
+    waiter.join();
+    assertNull(waiter.result);
+    assertNull(pool.lease());
+    assertEquals(2, pool.getDroppedCount());
+    assertEquals(0, pool.getQueuedCount());
+
+    // A lease outstanding at close is closed on release, and closing again does nothing.
+    pool.release(leased);
+    pool.close();
+    assertEquals(1, pool.getLeaseCount());
+  }
+
+  private static DetectorPool newPool(
+      final int size, final DetectorPool.OverflowPolicy policy, final int maxQueued) {
+    final YoloV5Classifier[] detectors = new YoloV5Classifier[size];
+    for (int i = 0; i < size; ++i) {
+      detectors[i] = new YoloV5Classifier();
+    }
+    return new DetectorPool(detectors, 1, policy, maxQueued);
+  }
+
+  /** Starts a thread that leases from {@code pool} and returns once it waits in the queue. */
+  private static Leaser startLeaser(final DetectorPool pool) throws InterruptedException {
+    final Leaser leaser = new Leaser(pool);
+    leaser.start();
+    while (leaser.getState() != Thread.State.WAITING) {
+      if (!leaser.isAlive()) {
+        throw new AssertionError("Lease did not wait");
+      }
+      Thread.sleep(1);
+    }
+    return leaser;
+  }
+
+  private static final class Leaser extends Thread {
+    private final DetectorPool pool;
+    volatile YoloV5Classifier result;
+
+    Leaser(final DetectorPool pool) {
+      this.pool = pool;
+    }
+
+    @Override
+    public void run() {
+      result = pool.lease();
+    }
+  }
+}
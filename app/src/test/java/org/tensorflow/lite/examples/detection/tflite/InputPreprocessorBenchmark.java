@@ -0,0 +1,130 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.WorkerPool;
+
+/**
+ * JVM benchmark for {@link InputPreprocessor} against the per-pixel loop it replaced. Checks that
+ * both produce identical tensors, serially and striped over the default {@link WorkerPool}, and
+ * prints the time per frame at the 416x416 model input size.
+ */
+public class InputPreprocessorBenchmark {
+
+  private static final int INPUT_SIZE = 416;
+  private static final float IMAGE_MEAN = 0;
+  private static final float IMAGE_STD = 255.0f;
+  private static final float INP_SCALE = 0.003921569f;
+  private static final int INP_ZERO_POINT = 0;
+  private static final int WARMUP_RUNS = 20;
+  private static final int TIMED_RUNS = 100;
+  private static final WorkerPool SERIAL = new WorkerPool(1, WorkerPool.DEFAULT_MIN_ROWS_PER_STRIPE);
+
+  private final int[] pixels = randomPixels(INPUT_SIZE * INPUT_SIZE);
+
+  @Test
+  public void floatTensorMatchesPerPixelLoop() {
+    final ByteBuffer expected = allocate(4);
+    final ByteBuffer actual = allocate(4);
+    final InputPreprocessor preprocessor = InputPreprocessor.forFloat(IMAGE_MEAN, IMAGE_STD);
+
+    final InputPreprocessor serial = InputPreprocessor.forFloat(IMAGE_MEAN, IMAGE_STD);
+    serial.setWorkerPool(SERIAL);
+
+    referenceLoop(pixels, expected, false);
+    expected.rewind();
+    assertEquals(expected, serial.process(pixels, INPUT_SIZE, INPUT_SIZE, actual));
+    assertEquals(expected, preprocessor.process(pixels, INPUT_SIZE, INPUT_SIZE, actual));
+
+    report(
+        "float",
+        () -> referenceLoop(pixels, expected, false),
+        () -> serial.process(pixels, INPUT_SIZE, INPUT_SIZE, actual),
+        () -> preprocessor.process(pixels, INPUT_SIZE, INPUT_SIZE, actual));
+  }
+
+  @Test
+  public void quantizedTensorMatchesPerPixelLoop() {
+    final ByteBuffer expected = allocate(1);
+    final ByteBuffer actual = allocate(1);
+    final InputPreprocessor preprocessor =
+        InputPreprocessor.forQuantized(IMAGE_MEAN, IMAGE_STD, INP_SCALE, INP_ZERO_POINT);
+
+    final InputPreprocessor serial =
+        InputPreprocessor.forQuantized(IMAGE_MEAN, IMAGE_STD, INP_SCALE, INP_ZERO_POINT);
+    serial.setWorkerPool(SERIAL);
+
+    referenceLoop(pixels, expected, true);
+    expected.rewind();
+    assertEquals(expected, serial.process(pixels, INPUT_SIZE, INPUT_SIZE, actual));
+    assertEquals(expected, preprocessor.process(pixels, INPUT_SIZE, INPUT_SIZE, actual));
+
+    report(
+        "quantized",
+        () -> referenceLoop(pixels, expected, true),
+        () -> serial.process(pixels, INPUT_SIZE, INPUT_SIZE, actual),
+        () -> preprocessor.process(pixels, INPUT_SIZE, INPUT_SIZE, actual));
+  }
+
+  /** The convertBitmapToByteBuffer loop as it was before the lookup tables. */
+  private static void referenceLoop(int[] intValues, ByteBuffer imgData, boolean isModelQuantized) {
+    imgData.rewind();
+    for (int i = 0; i < INPUT_SIZE; ++i) {
+      for (int j = 0; j < INPUT_SIZE; ++j) {
+        int pixelValue = intValues[i * INPUT_SIZE + j];
+        if (isModelQuantized) {
+          imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / INP_SCALE + INP_ZERO_POINT));
+          imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / INP_SCALE + INP_ZERO_POINT));
+          imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / INP_SCALE + INP_ZERO_POINT));
+        } else {
+          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        }
+      }
+    }
+  }
+
+  private static void report(String name, Runnable reference, Runnable table, Runnable striped) {
+    final double referenceMs = time(reference);
+    final double tableMs = time(table);
+    final double stripedMs = time(striped);
+    System.out.println(
+        String.format(
+            "%s preprocessing %dx%d: per-pixel %.3f ms, table %.3f ms (%.1fx), "
+                + "table on %d threads %.3f ms (%.1fx)",
+            name, INPUT_SIZE, INPUT_SIZE, referenceMs, tableMs, referenceMs / tableMs,
+            WorkerPool.getDefault().getParallelism(), stripedMs, referenceMs / stripedMs));
+  }
+
+  private static double time(Runnable r) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      r.run();
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < TIMED_RUNS; ++i) {
+      r.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+  }
+
+  private static ByteBuffer allocate(int bytesPerChannel) {
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * bytesPerChannel);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  private static int[] randomPixels(int n) {
+    final Random random = new Random(42);
+    final int[] values = new int[n];
+    for (int i = 0; i < n; ++i) {
+      values[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    return values;
+  }
+}
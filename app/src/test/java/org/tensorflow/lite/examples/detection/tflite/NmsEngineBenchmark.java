@@ -0,0 +1,229 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.WorkerPool;
+
+/**
+ * JVM benchmark for {@link NmsEngine}. For candidate sets of increasing size over the 416x416
+ * model input, checks that the sorted and the spatial grid paths keep the same boxes and prints
+ * the time per call of each, and of the automatic choice between them. Also compares the greedy,
+ * Matrix and Soft NMS modes on latency and on precision/recall against the synthetic signs.
+ */
+public class NmsEngineBenchmark {
+
+  private static final int INPUT_SIZE = 416;
+  private static final int NUM_CLASSES = 21;
+  private static final float NMS_THRESH = 0.6f;
+  private static final int[] DENSITIES = {64, 256, 1024, 4096, 10647};
+  private static final int WARMUP_RUNS = 20;
+  private static final int TIMED_RUNS = 50;
+  private static final int SIGNS = 12;
+  // Score a kept box needs to count as a detection, and IoU it needs to match a sign.
+  private static final float DETECTION_THRESHOLD = 0.5f;
+  private static final float MATCH_IOU = 0.5f;
+
+  @Test
+  public void gridKeepsSameBoxesAsSortedPath() {
+    for (final int n : DENSITIES) {
+      for (final boolean classAgnostic : new boolean[] {false, true}) {
+        final CandidateBuffer candidates = clutteredScene(n, n, null);
+        final int[] sorted = run(candidates, Integer.MAX_VALUE, classAgnostic);
+        final int[] grid = run(candidates, 0, classAgnostic);
+        assertArrayEquals("n=" + n + " agnostic=" + classAgnostic, sorted, grid);
+      }
+    }
+  }
+
+  @Test
+  public void degenerateBoxesMatchSortedPath() {
+    final CandidateBuffer candidates = new CandidateBuffer(8);
+    candidates.add(10, 10, 10, 10, 0.9f, 0);
+    candidates.add(10, 10, 10, 10, 0.8f, 0);
+    candidates.add(50, 50, 40, 40, 0.7f, 0);
+    candidates.add(0, 0, INPUT_SIZE, INPUT_SIZE, 0.6f, 0);
+    candidates.add(0, 0, INPUT_SIZE, INPUT_SIZE, 0.6f, 0);
+    assertArrayEquals(
+        run(candidates, Integer.MAX_VALUE, false), run(candidates, 0, false));
+    assertEquals(3, run(candidates, 0, false).length);
+  }
+
+  @Test
+  public void reportLatencyAcrossDensities() {
+    for (final int n : DENSITIES) {
+      final CandidateBuffer candidates = clutteredScene(n, 7, null);
+      final NmsEngine sorted = engine(candidates, Integer.MAX_VALUE, true);
+      final NmsEngine grid = engine(candidates, 0, true);
+      final NmsEngine auto = engine(candidates, NmsEngine.DEFAULT_GRID_THRESHOLD, true);
+      final int[] keep = new int[candidates.capacity()];
+
+      final double sortedMs = time(() -> sorted.run(candidates, NMS_THRESH, keep));
+      final double gridMs = time(() -> grid.run(candidates, NMS_THRESH, keep));
+      final double autoMs = time(() -> auto.run(candidates, NMS_THRESH, keep));
+      System.out.println(
+          String.format(
+              "nms, %5d candidates: sorted %.3f ms, grid %.3f ms (%.1fx), auto %.3f ms",
+              n, sortedMs, gridMs, sortedMs / gridMs, autoMs));
+    }
+  }
+
+  @Test
+  public void matrixNmsIsIndependentOfThreadCount() {
+    final CandidateBuffer serialCandidates = clutteredScene(4096, 3, null);
+    final CandidateBuffer parallelCandidates = clutteredScene(4096, 3, null);
+    final NmsEngine serial = engine(serialCandidates, 0, false);
+    serial.setMode(NmsEngine.Mode.MATRIX);
+    serial.setWorkerPool(new WorkerPool(1, WorkerPool.DEFAULT_MIN_ROWS_PER_STRIPE));
+    final NmsEngine parallel = engine(parallelCandidates, 0, false);
+    parallel.setMode(NmsEngine.Mode.MATRIX);
+    parallel.setWorkerPool(new WorkerPool(4, 8));
+
+    final int[] serialKeep = new int[serialCandidates.capacity()];
+    final int[] parallelKeep = new int[parallelCandidates.capacity()];
+    final int kept = serial.run(serialCandidates, NMS_THRESH, serialKeep);
+    assertEquals(kept, parallel.run(parallelCandidates, NMS_THRESH, parallelKeep));
+    assertArrayEquals(serialKeep, parallelKeep);
+    assertArrayEquals(serialCandidates.score, parallelCandidates.score, 0f);
+  }
+
+  @Test
+  public void reportModeAccuracyAndLatency() {
+    for (final int n : new int[] {256, 1024, 4096}) {
+      for (final NmsEngine.Mode mode : NmsEngine.Mode.values()) {
+        final float[][] signs = new float[SIGNS][];
+        final CandidateBuffer scene = clutteredScene(n, 11, signs);
+        final CandidateBuffer candidates = new CandidateBuffer(n);
+        final NmsEngine engine = engine(candidates, NmsEngine.DEFAULT_GRID_THRESHOLD, false);
+        engine.setMode(mode);
+        final int[] keep = new int[n];
+
+        // The decaying modes rewrite scores, so every run starts from a fresh copy.
+        final double ms = time(() -> engine.run(copy(scene, candidates), NMS_THRESH, keep));
+        final int kept = engine.run(copy(scene, candidates), NMS_THRESH, keep);
+
+        int detections = 0;
+        int truePositives = 0;
+        final boolean[] matched = new boolean[SIGNS];
+        for (int k = 0; k < kept; ++k) {
+          final int i = keep[k];
+          if (!(candidates.score[i] > DETECTION_THRESHOLD)) {
+            continue;
+          }
+          ++detections;
+          for (int s = 0; s < SIGNS; ++s) {
+            if (!matched[s] && iou(candidates, i, signs[s]) >= MATCH_IOU) {
+              matched[s] = true;
+              ++truePositives;
+              break;
+            }
+          }
+        }
+        System.out.println(
+            String.format(
+                "nms %-6s %5d candidates: %.3f ms, %d detections, precision %.2f, recall %.2f",
+                mode, n, ms, detections,
+                detections == 0 ? 0f : (float) truePositives / detections,
+                (float) truePositives / SIGNS));
+      }
+    }
+  }
+
+  private static int[] run(CandidateBuffer candidates, int gridThreshold, boolean classAgnostic) {
+    final int[] keep = new int[candidates.capacity()];
+    final int kept =
+        engine(candidates, gridThreshold, classAgnostic).run(candidates, NMS_THRESH, keep);
+    return Arrays.copyOf(keep, kept);
+  }
+
+  private static NmsEngine engine(
+      CandidateBuffer candidates, int gridThreshold, boolean classAgnostic) {
+    final NmsEngine engine = new NmsEngine(candidates.capacity(), NUM_CLASSES);
+    engine.setGridThreshold(gridThreshold);
+    engine.setClassAgnostic(classAgnostic);
+    return engine;
+  }
+
+  /**
+   * A street scene as a low threshold decodes it: a handful of signs, each hit by a cluster of
+   * jittered boxes mostly of its own class and sometimes of a look-alike one, plus scattered
+   * low-confidence boxes of all sizes. The true sign boxes go into {@code signs} when given.
+   */
+  private static CandidateBuffer clutteredScene(int n, long seed, float[][] signs) {
+    final Random random = new Random(seed);
+    final CandidateBuffer candidates = new CandidateBuffer(n);
+    if (signs == null) {
+      signs = new float[SIGNS][];
+    }
+    for (int o = 0; o < SIGNS; ++o) {
+      final float size = 16 + random.nextFloat() * 80;
+      final float x = random.nextFloat() * (INPUT_SIZE - size);
+      final float y = random.nextFloat() * (INPUT_SIZE - size);
+      signs[o] = new float[] {x, y, x + size, y + size, random.nextInt(3)};
+    }
+    for (int i = 0; i < n; ++i) {
+      final float x;
+      final float y;
+      final float w;
+      final float h;
+      final float score;
+      final int cls;
+      if (i % 2 == 0) {
+        final float[] sign = signs[random.nextInt(SIGNS)];
+        final float size = sign[2] - sign[0];
+        final float jitter = size * 0.15f;
+        x = sign[0] + (random.nextFloat() - 0.5f) * jitter;
+        y = sign[1] + (random.nextFloat() - 0.5f) * jitter;
+        w = size * (0.9f + random.nextFloat() * 0.2f);
+        h = size * (0.9f + random.nextFloat() * 0.2f);
+        score = 0.5f + random.nextFloat() * 0.5f;
+        cls = random.nextInt(5) == 0 ? random.nextInt(3) : (int) sign[4];
+      } else {
+        w = 8 + random.nextFloat() * 120;
+        h = 8 + random.nextFloat() * 120;
+        x = random.nextFloat() * (INPUT_SIZE - w);
+        y = random.nextFloat() * (INPUT_SIZE - h);
+        score = random.nextFloat() * 0.5f;
+        cls = random.nextInt(NUM_CLASSES);
+      }
+      candidates.add(
+          Math.max(0, x), Math.max(0, y),
+          Math.min(INPUT_SIZE - 1, x + w), Math.min(INPUT_SIZE - 1, y + h),
+          score, cls);
+    }
+    return candidates;
+  }
+
+  private static CandidateBuffer copy(CandidateBuffer from, CandidateBuffer to) {
+    to.clear();
+    for (int i = 0; i < from.size(); ++i) {
+      to.add(from.left[i], from.top[i], from.right[i], from.bottom[i], from.score[i],
+          from.detectedClass[i]);
+    }
+    return to;
+  }
+
+  private static float iou(CandidateBuffer candidates, int i, float[] box) {
+    final float w = Math.min(candidates.right[i], box[2]) - Math.max(candidates.left[i], box[0]);
+    final float h = Math.min(candidates.bottom[i], box[3]) - Math.max(candidates.top[i], box[1]);
+    if (w < 0 || h < 0) return 0;
+    final float inter = w * h;
+    return inter
+        / ((candidates.right[i] - candidates.left[i]) * (candidates.bottom[i] - candidates.top[i])
+            + (box[2] - box[0]) * (box[3] - box[1]) - inter);
+  }
+
+  private static double time(Runnable r) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      r.run();
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < TIMED_RUNS; ++i) {
+      r.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+  }
+}
@@ -0,0 +1,120 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.Utils;
+
+/**
+ * JVM test for the keys and raw thresholds of {@link QuantizedOutput}, against dequantizing each
+ * of the 256 codes of int8 and uint8 tensors.
+ */
+public class QuantizedOutputTest {
+
+  // Scales, and zero points in the range of each tensor type.
+  private static final float[] SCALES = {0.0039f, 0.0117f, 0.05f};
+  private static final int[] UINT8_ZERO_POINTS = {0, 3, 128, 255};
+  private static final int[] INT8_ZERO_POINTS = {-128, -125, 0, 127};
+
+  @Test
+  public void keysSortLikeDequantizedValues() {
+    for (final boolean signed : new boolean[] {false, true}) {
+      for (final float scale : SCALES) {
+        for (final int zeroPoint : zeroPoints(signed)) {
+          for (final boolean sigmoid : new boolean[] {false, true}) {
+            final QuantizedOutput output = new QuantizedOutput(scale, zeroPoint, signed, sigmoid);
+            for (int a = 0; a < 256; ++a) {
+              final byte rawA = (byte) a;
+              final int keyA = output.key(rawA);
+              assertTrue(keyA >= 0 && keyA < 256);
+              assertEquals(
+                  dequantize(rawA, scale, zeroPoint, signed, sigmoid), output.value(keyA), 1e-6f);
+              for (int b = 0; b < 256; ++b) {
+                final byte rawB = (byte) b;
+                final boolean keyLess = keyA < output.key(rawB);
+                final boolean valueLess = signed ? rawA < rawB : (rawA & 0xFF) < (rawB & 0xFF);
+                assertEquals(
+                    describe(signed, scale, zeroPoint) + " codes " + a + ", " + b,
+                    valueLess,
+                    keyLess);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rawThresholdMatchesDequantizeAndCompare() {
+    final float[] thresholds = {-100, -1, -0.01f, 0, 0.01f, 0.25f, 0.5f, 0.8f, 1, 2.9f, 100};
+    for (final boolean signed : new boolean[] {false, true}) {
+      for (final float scale : SCALES) {
+        for (final int zeroPoint : zeroPoints(signed)) {
+          for (final boolean sigmoid : new boolean[] {false, true}) {
+            final QuantizedOutput output = new QuantizedOutput(scale, zeroPoint, signed, sigmoid);
+            for (final float threshold : thresholds) {
+              checkThreshold(output, threshold, scale, zeroPoint, signed, sigmoid);
+            }
+            // Exactly on a code's value, where off-by-one errors would show.
+            for (int code = 0; code < 256; code += 17) {
+              final float onCode = dequantize((byte) code, scale, zeroPoint, signed, sigmoid);
+              checkThreshold(output, onCode, scale, zeroPoint, signed, sigmoid);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rawThresholdCoversBothEnds() {
+    final QuantizedOutput uint8 = new QuantizedOutput(0.01f, 0, false, false);
+    assertEquals(-1, uint8.rawThreshold(-1));
+    assertEquals(255, uint8.rawThreshold(10));
+    final QuantizedOutput int8 = new QuantizedOutput(0.01f, -128, true, false);
+    assertEquals(-1, int8.rawThreshold(-1));
+    assertEquals(255, int8.rawThreshold(10));
+    // Codes 0 to 50 of the uint8 tensor are at most 0.5.
+    assertEquals(50, uint8.rawThreshold(0.505f));
+  }
+
+  private static void checkThreshold(
+      final QuantizedOutput output,
+      final float threshold,
+      final float scale,
+      final int zeroPoint,
+      final boolean signed,
+      final boolean sigmoid) {
+    final int raw = output.rawThreshold(threshold);
+    assertTrue(raw >= -1 && raw <= 255);
+    for (int code = 0; code < 256; ++code) {
+      final byte b = (byte) code;
+      final boolean above = dequantize(b, scale, zeroPoint, signed, sigmoid) > threshold;
+      assertEquals(
+          describe(signed, scale, zeroPoint) + " threshold " + threshold + " code " + code,
+          above,
+          output.key(b) > raw);
+    }
+  }
+
+  private static float dequantize(
+      final byte raw,
+      final float scale,
+      final int zeroPoint,
+      final boolean signed,
+      final boolean sigmoid) {
+    final int q = signed ? raw : raw & 0xFF;
+    final float value = scale * (q - zeroPoint);
+    return sigmoid ? Utils.expit(value) : value;
+  }
+
+  private static int[] zeroPoints(final boolean signed) {
+    return signed ? INT8_ZERO_POINTS : UINT8_ZERO_POINTS;
+  }
+
+  private static String describe(final boolean signed, final float scale, final int zeroPoint) {
+    return (signed ? "int8" : "uint8") + " scale " + scale + " zero point " + zeroPoint;
+  }
+}
@@ -0,0 +1,92 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JVM test for the size changes {@link ResolutionController} makes from synthetic latencies.
+ */
+public class ResolutionControllerTest {
+
+  private static final int[] SIZES = {256, 320, 416, 512};
+  private static final long BUDGET_MS = 100;
+  private static final int WINDOW = 10;
+
+  @Test
+  public void holdsSizeUntilWindowIsFull() {
+    final ResolutionController controller = newController(416);
+    for (int i = 0; i < WINDOW - 1; ++i) {
+      assertEquals(416, controller.onFrame(416, ms(500)));
+    }
+    assertEquals(320, controller.onFrame(416, ms(500)));
+  }
+
+  @Test
+  public void stepsDownWhenP95IsOverBudget() {
+    final ResolutionController controller = newController(416);
+    // One slow frame in ten puts the 95th percentile over the budget.
+    feed(controller, 416, ms(60), WINDOW - 1);
+    assertEquals(320, controller.onFrame(416, ms(150)));
+    assertEquals(150_000_000L, controller.getP95Nanos());
+  }
+
+  @Test
+  public void stepsUpOnlyWithHeadroom() {
+    final ResolutionController controller = newController(320);
+    // 320 -> 416 scales the pixels by 1.69: 50 ms predicts 84.5 ms, over 80% of the budget.
+    feed(controller, 320, ms(50), WINDOW);
+    assertEquals(320, controller.getSize());
+    // 40 ms predicts 67.6 ms.
+    feed(controller, 320, ms(40), WINDOW);
+    assertEquals(416, controller.getSize());
+  }
+
+  @Test
+  public void ignoresFramesOfPreviousSizeAfterSwitch() {
+    final ResolutionController controller = newController(416);
+    feed(controller, 416, ms(500), WINDOW);
+    assertEquals(320, controller.getSize());
+    // Frames queued at 416 before the switch, then a fresh window at 320.
+    feed(controller, 416, ms(500), WINDOW);
+    feed(controller, 320, ms(60), WINDOW - 1);
+    assertEquals(320, controller.getSize());
+  }
+
+  @Test
+  public void staysWithinLadder() {
+    final ResolutionController controller = newController(256);
+    feed(controller, 256, ms(500), WINDOW);
+    assertEquals(256, controller.getSize());
+
+    final ResolutionController top = newController(512);
+    feed(top, 512, ms(1), WINDOW);
+    assertEquals(512, top.getSize());
+  }
+
+  @Test
+  public void addsInitialSizeAndRemovesFailingOnes() {
+    final ResolutionController controller = newController(384);
+    assertEquals(384, controller.getSize());
+    controller.removeSize(384);
+    assertEquals(320, controller.getSize());
+    controller.removeSize(256);
+    assertEquals(320, controller.getSize());
+    feed(controller, 320, ms(500), WINDOW);
+    assertEquals(320, controller.getSize());
+  }
+
+  private static ResolutionController newController(int initialSize) {
+    return new ResolutionController(SIZES, initialSize, BUDGET_MS, WINDOW);
+  }
+
+  private static void feed(ResolutionController controller, int size, long nanos, int frames) {
+    for (int i = 0; i < frames; ++i) {
+      controller.onFrame(size, nanos);
+    }
+  }
+
+  private static long ms(long ms) {
+    return ms * 1_000_000L;
+  }
+}
@@ -0,0 +1,114 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JVM test for the tile layout and the seam merge of {@link TiledDetector}.
+ */
+public class TiledDetectorTest {
+
+  @Test
+  public void tilesCoverFrameWithOverlap() {
+    // 1280 wide in 416 tiles at 20% overlap: steps of at most 332.8 px.
+    final int[] positions = TiledDetector.tilePositions(1280, 416, 0.2f);
+    assertArrayEquals(new int[] {0, 288, 576, 864}, positions);
+    for (int i = 1; i < positions.length; ++i) {
+      assertTrue(positions[i - 1] + 416 - positions[i] >= 0.2f * 416);
+    }
+    assertEquals(1280, positions[positions.length - 1] + 416);
+  }
+
+  @Test
+  public void frameNoLargerThanTileIsOneTile() {
+    assertArrayEquals(new int[] {0}, TiledDetector.tilePositions(416, 416, 0.2f));
+    assertArrayEquals(new int[] {0}, TiledDetector.tilePositions(320, 416, 0.2f));
+  }
+
+  @Test
+  public void mergesBoxSplitAcrossVerticalSeam() {
+    final Boxes boxes = new Boxes(4);
+    // A sign across the seam at x = 416, seen in part by the left and right tiles.
+    boxes.add(380, 100, 415, 140, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    boxes.add(400, 101, 440, 141, 0.9f, 3, 1, TiledDetector.CUT_LEFT);
+    assertEquals(1, boxes.merge());
+    assertFalse(boxes.removed[0]);
+    assertTrue(boxes.removed[1]);
+    assertEquals(380, boxes.c.left[0], 0);
+    assertEquals(440, boxes.c.right[0], 0);
+    assertEquals(141, boxes.c.bottom[0], 0);
+    assertEquals(0.9f, boxes.c.score[0], 0);
+  }
+
+  @Test
+  public void keepsBoxesThatDoNotMeetAcrossSeam() {
+    final Boxes boxes = new Boxes(8);
+    // Other class.
+    boxes.add(380, 100, 415, 140, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    boxes.add(400, 100, 440, 140, 0.9f, 4, 1, TiledDetector.CUT_LEFT);
+    // Same tile.
+    boxes.add(380, 300, 415, 340, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    boxes.add(380, 330, 415, 370, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    // Not cut, from the whole-frame pass.
+    boxes.add(380, 500, 440, 540, 0.8f, 3, -1, 0);
+    boxes.add(400, 500, 440, 540, 0.9f, 3, 1, TiledDetector.CUT_LEFT);
+    // Barely sharing their extent along the seam.
+    boxes.add(380, 600, 415, 640, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    boxes.add(400, 630, 440, 670, 0.9f, 3, 1, TiledDetector.CUT_LEFT);
+    assertEquals(0, boxes.merge());
+  }
+
+  @Test
+  public void doesNotMergeBoxesWithoutArea() {
+    final Boxes boxes = new Boxes(4);
+    // Zero wide and zero high pieces at the seam, which would otherwise share NaN of their extent.
+    boxes.add(415, 100, 415, 140, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    boxes.add(400, 100, 440, 140, 0.9f, 3, 1, TiledDetector.CUT_LEFT);
+    boxes.add(380, 300, 415, 300, 0.7f, 3, 0, TiledDetector.CUT_RIGHT);
+    boxes.add(400, 300, 440, 340, 0.9f, 3, 1, TiledDetector.CUT_LEFT);
+    assertEquals(0, boxes.merge());
+    assertFalse(boxes.removed[1]);
+    assertFalse(boxes.removed[3]);
+  }
+
+  @Test
+  public void mergesFourPiecesAtTileCorner() {
+    final Boxes boxes = new Boxes(4);
+    boxes.add(390, 390, 415, 415, 0.6f, 2, 0, TiledDetector.CUT_RIGHT | TiledDetector.CUT_BOTTOM);
+    boxes.add(400, 390, 430, 415, 0.7f, 2, 1, TiledDetector.CUT_LEFT | TiledDetector.CUT_BOTTOM);
+    boxes.add(390, 400, 415, 430, 0.5f, 2, 2, TiledDetector.CUT_RIGHT | TiledDetector.CUT_TOP);
+    boxes.add(400, 400, 430, 430, 0.8f, 2, 3, TiledDetector.CUT_LEFT | TiledDetector.CUT_TOP);
+    assertEquals(3, boxes.merge());
+    assertEquals(390, boxes.c.left[0], 0);
+    assertEquals(430, boxes.c.bottom[0], 0);
+    assertEquals(0.8f, boxes.c.score[0], 0);
+  }
+
+  private static final class Boxes {
+    final CandidateBuffer c;
+    final int[] tileOf;
+    final int[] cutEdges;
+    final boolean[] removed;
+
+    Boxes(int capacity) {
+      c = new CandidateBuffer(capacity);
+      tileOf = new int[capacity];
+      cutEdges = new int[capacity];
+      removed = new boolean[capacity];
+    }
+
+    void add(float l, float t, float r, float b, float score, int cls, int tile, int cut) {
+      final int i = c.add(l, t, r, b, score, cls);
+      tileOf[i] = tile;
+      cutEdges[i] = cut;
+    }
+
+    int merge() {
+      return TiledDetector.mergeSeams(c, tileOf, cutEdges, removed);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/** JVM test for the motion {@link BlockMatcher} estimates from shifted synthetic frames. */
+public class BlockMatcherTest {
+
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final byte[] SCENE = texture(WIDTH + 64, HEIGHT + 64, 1);
+
+  @Test
+  public void needsTwoFrames() {
+    final BlockMatcher matcher = new BlockMatcher();
+    final float[] shift = new float[2];
+    assertEquals(-1, matcher.match(100, 100, 140, 140, shift), 0);
+    matcher.update(frame(0, 0));
+    assertFalse(matcher.isReady());
+    matcher.update(frame(0, 0));
+    assertTrue(matcher.isReady());
+  }
+
+  @Test
+  public void findsShiftOfRegion() {
+    final BlockMatcher matcher = new BlockMatcher();
+    matcher.update(frame(0, 0));
+    // The camera pans, so the scene moves by (-8, +12) in the frame.
+    matcher.update(frame(8, -12));
+    final float[] shift = new float[2];
+    final float error = matcher.match(100, 80, 164, 144, shift);
+    assertEquals(-8, shift[0], 0);
+    assertEquals(12, shift[1], 0);
+    assertEquals(0, error, 0);
+    assertEquals(Math.hypot(8, 12), matcher.getMotion(), 1e-3);
+  }
+
+  @Test
+  public void stillSceneHasNoMotion() {
+    final BlockMatcher matcher = new BlockMatcher();
+    matcher.update(frame(4, 4));
+    matcher.update(frame(4, 4));
+    final float[] shift = new float[2];
+    assertEquals(0, matcher.match(40, 40, 100, 100, shift), 0);
+    assertEquals(0, shift[0], 0);
+    assertEquals(0, shift[1], 0);
+    assertEquals(0, matcher.getMotion(), 0);
+  }
+
+  @Test
+  public void reportsPoorMatchAndRegionsOutsideFrame() {
+    final BlockMatcher matcher = new BlockMatcher();
+    matcher.update(frame(0, 0));
+    final YuvFrame other = new YuvFrame();
+    other.setNv21(texture(WIDTH, HEIGHT * 3 / 2, 2), WIDTH, HEIGHT);
+    matcher.update(other);
+    final float[] shift = new float[2];
+    assertTrue(matcher.match(100, 80, 164, 144, shift) > 10);
+    assertEquals(-1, matcher.match(-40, 80, 10, 144, shift), 0);
+  }
+
+  // A WIDTH x HEIGHT window of the scene at (x, y), as an NV21 frame.
+  private static YuvFrame frame(int x, int y) {
+    final byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int row = 0; row < HEIGHT; ++row) {
+      System.arraycopy(SCENE, (row + y + 32) * (WIDTH + 64) + x + 32, data, row * WIDTH, WIDTH);
+    }
+    final YuvFrame frame = new YuvFrame();
+    frame.setNv21(data, WIDTH, HEIGHT);
+    return frame;
+  }
+
+  // Random blobs of 4x4 pixels, so that every block has detail after downsampling.
+  private static byte[] texture(int width, int height, long seed) {
+    final Random random = new Random(seed);
+    final byte[] pixels = new byte[width * height];
+    for (int y = 0; y < height; y += 4) {
+      for (int x = 0; x < width; x += 4) {
+        final byte value = (byte) random.nextInt(256);
+        for (int dy = 0; dy < 4 && y + dy < height; ++dy) {
+          for (int dx = 0; dx < 4 && x + dx < width; ++dx) {
+            pixels[(y + dy) * width + x + dx] = value;
+          }
+        }
+      }
+    }
+    return pixels;
+  }
+}
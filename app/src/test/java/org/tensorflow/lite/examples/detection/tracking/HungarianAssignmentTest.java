@@ -0,0 +1,92 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * JVM test for {@link HungarianAssignment} against exhaustive search.
+ */
+public class HungarianAssignmentTest {
+
+  @Test
+  public void solvesSquareMatrix() {
+    final float[] cost = {
+      4, 1, 3,
+      2, 0, 5,
+      3, 2, 2
+    };
+    final int[] rowToCol = new int[3];
+    new HungarianAssignment().solve(cost, 3, 3, rowToCol);
+    assertArrayEquals(new int[] {1, 0, 2}, rowToCol);
+  }
+
+  @Test
+  public void leavesExtraRowsUnassigned() {
+    final float[] cost = {
+      0.9f, 0.8f,
+      0.1f, 0.9f,
+      0.9f, 0.2f
+    };
+    final int[] rowToCol = new int[3];
+    new HungarianAssignment().solve(cost, 3, 2, rowToCol);
+    assertArrayEquals(new int[] {-1, 0, 1}, rowToCol);
+  }
+
+  @Test
+  public void matchesExhaustiveSearchOnRandomMatrices() {
+    final Random random = new Random(7);
+    final HungarianAssignment hungarian = new HungarianAssignment();
+    for (int trial = 0; trial < 200; ++trial) {
+      final int rows = 1 + random.nextInt(5);
+      final int cols = 1 + random.nextInt(5);
+      final float[] cost = new float[rows * cols];
+      for (int i = 0; i < cost.length; ++i) {
+        cost[i] = random.nextInt(10) / 4f;
+      }
+      final int[] rowToCol = new int[rows];
+      hungarian.solve(cost, rows, cols, rowToCol);
+
+      int assignedRows = 0;
+      boolean[] usedCols = new boolean[cols];
+      float total = 0;
+      for (int i = 0; i < rows; ++i) {
+        if (rowToCol[i] >= 0) {
+          assertEquals(false, usedCols[rowToCol[i]]);
+          usedCols[rowToCol[i]] = true;
+          total += cost[i * cols + rowToCol[i]];
+          ++assignedRows;
+        }
+      }
+      assertEquals(Math.min(rows, cols), assignedRows);
+      assertEquals(best(cost, rows, cols, 0, new boolean[cols]), total, 1e-4f);
+    }
+  }
+
+  // Cheapest total over rows from row on, each row taking an unused column while columns last.
+  private static float best(
+      final float[] cost, final int rows, final int cols, final int row, final boolean[] used) {
+    if (row == rows) {
+      return 0;
+    }
+    float best = Float.MAX_VALUE;
+    // A row may go without a column only if there are more rows left than columns.
+    int free = 0;
+    for (boolean u : used) {
+      free += u ? 0 : 1;
+    }
+    if (rows - row > free) {
+      best = best(cost, rows, cols, row + 1, used);
+    }
+    for (int j = 0; j < cols; ++j) {
+      if (!used[j]) {
+        used[j] = true;
+        best = Math.min(best, cost[row * cols + j] + best(cost, rows, cols, row + 1, used));
+        used[j] = false;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,92 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/** JVM test for the static scene decisions of {@link SceneChangeGate}. */
+public class SceneChangeGateTest {
+
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+
+  @Test
+  public void detectsFirstFrameAndReusesForStaticScene() {
+    final SceneChangeGate gate = new SceneChangeGate(6, 30);
+    assertFalse(gate.isUnchanged(frame(0, 0)));
+    gate.onDetectionStarted();
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(gate.isUnchanged(frame(0, 0)));
+      gate.onFrameSkipped();
+    }
+    assertEquals(5, gate.getReuseAge());
+    assertEquals(5, gate.getSkippedFrames());
+    assertEquals(6, gate.getCheckedFrames());
+  }
+
+  @Test
+  public void detectsChangedRegion() {
+    final SceneChangeGate gate = new SceneChangeGate(6, 30);
+    gate.isUnchanged(frame(0, 0));
+    gate.onDetectionStarted();
+    // A bright car over a sixth of the view.
+    assertFalse(gate.isUnchanged(frame(0, WIDTH / 2)));
+    assertTrue(gate.getChange() >= 6);
+  }
+
+  @Test
+  public void comparesWithDetectedFrameSoDriftAddsUp() {
+    final SceneChangeGate gate = new SceneChangeGate(6, 100);
+    gate.isUnchanged(frame(0, 0));
+    gate.onDetectionStarted();
+    int frames = 0;
+    for (int brightness = 1; gate.isUnchanged(frame(brightness, 0)); ++brightness) {
+      gate.onFrameSkipped();
+      ++frames;
+    }
+    // Each frame is only 1 brighter than the one before it, yet detection is due at 6.
+    assertEquals(5, frames);
+  }
+
+  @Test
+  public void limitsReuseAge() {
+    final SceneChangeGate gate = new SceneChangeGate(6, 3);
+    gate.isUnchanged(frame(0, 0));
+    gate.onDetectionStarted();
+    for (int i = 0; i < 3; ++i) {
+      assertTrue(gate.isUnchanged(frame(0, 0)));
+      gate.onFrameSkipped();
+    }
+    assertFalse(gate.isUnchanged(frame(0, 0)));
+    gate.onDetectionStarted();
+    assertEquals(0, gate.getReuseAge());
+    assertTrue(gate.isUnchanged(frame(0, 0)));
+  }
+
+  @Test
+  public void detectsAgainAfterFailedDetection() {
+    final SceneChangeGate gate = new SceneChangeGate(6, 30);
+    gate.isUnchanged(frame(0, 0));
+    gate.onDetectionStarted();
+    gate.onDetectionFailed();
+    assertFalse(gate.isUnchanged(frame(0, 0)));
+  }
+
+  // A gradient lit up by brightness, with a white block of carWidth x HEIGHT / 3 at the left.
+  private static YuvFrame frame(final int brightness, final int carWidth) {
+    final int stride = WIDTH + 16;
+    final byte[] y = new byte[stride * HEIGHT];
+    for (int row = 0; row < HEIGHT; ++row) {
+      for (int x = 0; x < WIDTH; ++x) {
+        final boolean car = x < carWidth && row >= HEIGHT / 3 && row < 2 * HEIGHT / 3;
+        y[row * stride + x] = (byte) (car ? 255 : Math.min(255, 40 + x / 4 + brightness));
+      }
+    }
+    final YuvFrame frame = new YuvFrame();
+    frame.setPlanar(y, new byte[0], new byte[0], WIDTH, HEIGHT, stride, 0, 0);
+    return frame;
+  }
+}
@@ -0,0 +1,109 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JVM test for the assignment, prediction and track lifetime of {@link SortTracker}.
+ */
+public class SortTrackerTest {
+
+  @Test
+  public void keepsIdOfMovingBox() {
+    final SortTracker tracker = new SortTracker(2, 3, 0.3f);
+    final int id = detect(tracker, box(100, 100, 60), 1)[0].id;
+    for (int frame = 1; frame < 10; ++frame) {
+      tracker.predict(1);
+      final SortTracker.Track track = detect(tracker, box(100 + 8 * frame, 100, 60), 1)[0];
+      assertEquals(id, track.id);
+      assertTrue(track.isConfirmed());
+    }
+    assertEquals(1, tracker.getTracks().size());
+  }
+
+  @Test
+  public void predictsBoxWithoutDetections() {
+    final SortTracker tracker = new SortTracker(2, 3, 0.3f);
+    for (int frame = 0; frame < 10; ++frame) {
+      tracker.predict(1);
+      detect(tracker, box(100 + 8 * frame, 100, 60), 1);
+    }
+    // Last seen at 172, three frames later the box follows its velocity to 196.
+    tracker.predict(3);
+    final float[] out = new float[4];
+    tracker.getTracks().get(0).getBox(out);
+    assertEquals(196, (out[0] + out[2]) / 2, 2);
+    assertEquals(60, out[2] - out[0], 2);
+  }
+
+  @Test
+  public void assignsCrossingDetectionsByOverlap() {
+    final SortTracker tracker = new SortTracker(1, 3, 0.3f);
+    final SortTracker.Track[] first = detect(tracker, box(100, 100, 40), 1, box(300, 100, 40), 1);
+    // Reported in the other order, each slightly moved.
+    final SortTracker.Track[] second = detect(tracker, box(305, 102, 40), 1, box(96, 98, 40), 1);
+    assertSame(first[1], second[0]);
+    assertSame(first[0], second[1]);
+  }
+
+  @Test
+  public void doesNotMatchOtherClass() {
+    final SortTracker tracker = new SortTracker(1, 3, 0.3f);
+    final int id = detect(tracker, box(100, 100, 40), 1)[0].id;
+    assertNotEquals(id, detect(tracker, box(100, 100, 40), 2)[0].id);
+  }
+
+  @Test
+  public void confirmsAfterMinHitsAndDropsTentativeOnMiss() {
+    final SortTracker tracker = new SortTracker(3, 3, 0.3f);
+    assertFalse(detect(tracker, box(100, 100, 40), 1)[0].isConfirmed());
+    assertFalse(detect(tracker, box(100, 100, 40), 1)[0].isConfirmed());
+    assertTrue(detect(tracker, box(100, 100, 40), 1)[0].isConfirmed());
+
+    detect(tracker, box(400, 400, 40), 1);
+    detect(tracker, new float[0], 0);
+    // The tentative track died on its first miss, the confirmed one lives on.
+    assertEquals(1, tracker.getTracks().size());
+    assertTrue(tracker.getTracks().get(0).isConfirmed());
+  }
+
+  @Test
+  public void dropsConfirmedTrackAfterMaxMisses() {
+    final SortTracker tracker = new SortTracker(1, 2, 0.3f);
+    final int id = detect(tracker, box(100, 100, 40), 1)[0].id;
+    detect(tracker, new float[0], 0);
+    detect(tracker, new float[0], 0);
+    assertEquals(2, tracker.getTracks().get(0).getMisses());
+    assertEquals(id, detect(tracker, box(100, 100, 40), 1)[0].id);
+
+    for (int i = 0; i < 3; ++i) {
+      detect(tracker, new float[0], 0);
+    }
+    assertTrue(tracker.getTracks().isEmpty());
+    assertTrue(detect(tracker, box(100, 100, 40), 1)[0].id > id);
+  }
+
+  private static float[] box(final float cx, final float cy, final float side) {
+    return new float[] {cx - side / 2, cy - side / 2, cx + side / 2, cy + side / 2};
+  }
+
+  private static SortTracker.Track[] detect(final SortTracker tracker, final float[] box, final int cls) {
+    if (box.length == 0) {
+      return tracker.update(0, box, new int[0], new float[0]);
+    }
+    return tracker.update(1, box, new int[] {cls}, new float[] {0.9f});
+  }
+
+  private static SortTracker.Track[] detect(
+      final SortTracker tracker, final float[] a, final int classA, final float[] b, final int classB) {
+    final float[] boxes = new float[8];
+    System.arraycopy(a, 0, boxes, 0, 4);
+    System.arraycopy(b, 0, boxes, 4, 4);
+    return tracker.update(2, boxes, new int[] {classA, classB}, new float[] {0.9f, 0.9f});
+  }
+}